@@ -0,0 +1,101 @@
+package project_biu.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import project_biu.configs.MinAgent;
+import project_biu.configs.PlusAgent;
+import project_biu.graph.Agent;
+import project_biu.graph.Message;
+import project_biu.graph.TopicManagerSingleton;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one {@link PlusAgent} or {@link MinAgent} update, by number of inputs.
+ * <p>
+ * Updates hit random inputs with random values from a fixed seed, so every run replays the same
+ * sequence. The output topic has no subscribers, so only the agent's own work is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dproject_biu.log.level=warn")
+public class AgentCallbackBenchmark {
+    private static final String GRAPH = "bench-callback";
+    private static final int UPDATES = 4096; // power of two
+    private static final int BATCH = 16;
+
+    @Param({"plus", "min"})
+    public String agentType;
+
+    @Param({"2", "16", "128"})
+    public int inputs;
+
+    private Agent agent;
+    private String[] topics;
+    private Message[] messages;
+    private final String[] batchTopics = new String[BATCH];
+    private final Message[] batchMsgs = new Message[BATCH];
+    private int next;
+
+    @Setup
+    public void setup() {
+        String[] subs = new String[inputs];
+        for (int i = 0; i < inputs; i++) subs[i] = "in" + i;
+        String[] pubs = {"out"};
+
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get(GRAPH);
+        TopicManagerSingleton.reset(GRAPH);
+        TopicManagerSingleton.TopicManager prev = TopicManagerSingleton.bind(tm);
+        try {
+            agent = agentType.equals("plus") ? new PlusAgent(subs, pubs) : new MinAgent(subs, pubs);
+        } finally {
+            TopicManagerSingleton.bind(prev);
+        }
+
+        Random random = new Random(42);
+        topics = new String[UPDATES];
+        messages = new Message[UPDATES];
+        for (int i = 0; i < UPDATES; i++) {
+            topics[i] = subs[random.nextInt(inputs)];
+            messages[i] = new Message(random.nextInt(1_000_000) / 100.0);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        agent.close();
+        TopicManagerSingleton.remove(GRAPH);
+    }
+
+    /** One update delivered through {@code callback}. */
+    @Benchmark
+    public void callback() {
+        int i = next++ & (UPDATES - 1);
+        agent.callback(topics[i], messages[i]);
+    }
+
+    /** {@value #BATCH} updates delivered through one {@code callbackBatch}, as a ParallelAgent drains them. */
+    @Benchmark
+    public void callbackBatch() {
+        for (int k = 0; k < BATCH; k++) {
+            int i = next++ & (UPDATES - 1);
+            batchTopics[k] = topics[i];
+            batchMsgs[k] = messages[i];
+        }
+        agent.callbackBatch(batchTopics, batchMsgs, BATCH);
+    }
+}
@@ -0,0 +1,48 @@
+package project_biu.benchmarks;
+
+import project_biu.graph.Agent;
+import project_biu.graph.Message;
+
+/**
+ * Minimal agents used as benchmark endpoints.
+ */
+final class Agents {
+
+    private Agents() {}
+
+    /**
+     * Accumulates every received value so the JIT cannot drop the delivery.
+     */
+    static final class Sink implements Agent {
+        private final String name;
+        double sum;
+
+        Sink(String name) {
+            this.name = name;
+        }
+
+        @Override public String getName() { return name; }
+
+        @Override public void reset() { sum = 0; }
+
+        @Override public void callback(String topic, Message msg) { sum += msg.asDouble; }
+
+        @Override public void close() {}
+    }
+
+    /**
+     * Counts received messages in a volatile field that a waiting benchmark thread can poll.
+     */
+    static final class Counter implements Agent {
+        volatile long count;
+
+        @Override public String getName() { return "counter"; }
+
+        @Override public void reset() { count = 0; }
+
+        // Only the agent's single consumer thread writes the count
+        @Override public void callback(String topic, Message msg) { count++; }
+
+        @Override public void close() {}
+    }
+}
@@ -0,0 +1,40 @@
+package project_biu.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Generates deterministic config files for the benchmarks.
+ */
+final class Configs {
+
+    private Configs() {}
+
+    /**
+     * Writes a connected, acyclic config of {@code agents} agents to a temporary file. Agent
+     * {@code i} reads topics {@code N<i>} and {@code N<i+1>} and writes {@code N<i+2>}, alternating
+     * between {@code PlusAgent} and {@code MinAgent}.
+     *
+     * @param agents   the number of agents
+     * @param settings global setting lines to put first (e.g. {@code "propagation=topological"})
+     * @return the file, deleted when the JVM exits
+     * @throws IOException if the file cannot be written
+     */
+    static Path chain(int agents, String... settings) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String s : settings) {
+            sb.append(s).append('\n');
+        }
+        for (int i = 0; i < agents; i++) {
+            sb.append(i % 2 == 0 ? "project_biu.configs.PlusAgent" : "project_biu.configs.MinAgent").append('\n');
+            sb.append('N').append(i).append(",N").append(i + 1).append('\n');
+            sb.append('N').append(i + 2).append('\n');
+        }
+        Path file = Files.createTempFile("bench-", ".conf");
+        file.toFile().deleteOnExit();
+        Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
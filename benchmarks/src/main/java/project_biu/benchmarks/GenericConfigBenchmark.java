@@ -0,0 +1,67 @@
+package project_biu.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import project_biu.configs.GenericConfig;
+import project_biu.graph.TopicManagerSingleton;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of loading a large config with {@link GenericConfig#create()} and tearing it down again,
+ * per propagation strategy. Async mode uses a two-thread pool so the agent count does not
+ * translate into thread count.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dproject_biu.log.level=warn")
+public class GenericConfigBenchmark {
+    private static final String GRAPH = "bench-config";
+
+    @Param({"100", "1000"})
+    public int agents;
+
+    @Param({"async", "topological", "sharded"})
+    public String propagation;
+
+    private Path file;
+    private TopicManagerSingleton.TopicManager tm;
+
+    @Setup
+    public void setup() throws IOException {
+        file = Configs.chain(agents, "propagation=" + propagation, "executor=pool", "workers=2");
+        tm = TopicManagerSingleton.get(GRAPH);
+    }
+
+    @TearDown
+    public void tearDown() {
+        TopicManagerSingleton.remove(GRAPH);
+    }
+
+    @Benchmark
+    public int createAndClose() {
+        TopicManagerSingleton.reset(GRAPH);
+        GenericConfig config = new GenericConfig();
+        config.setConfFile(file.toString());
+        config.setTopicManager(tm);
+        config.create();
+        int topics = tm.size();
+        config.close();
+        return topics;
+    }
+}
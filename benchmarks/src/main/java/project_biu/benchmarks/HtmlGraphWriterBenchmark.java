@@ -0,0 +1,94 @@
+package project_biu.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import project_biu.configs.GenericConfig;
+import project_biu.graph.Graph;
+import project_biu.graph.Message;
+import project_biu.graph.Topic;
+import project_biu.graph.TopicManagerSingleton;
+import project_biu.views.HtmlGraphWriter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of rendering a large graph with {@link HtmlGraphWriter#writeGraphHtml(Graph, String)}.
+ * <p>
+ * Each call changes one topic value first, so the page is really rendered rather than skipped;
+ * the layout itself stays cached, as it would between publishes.
+ * <p>
+ * The writer reads {@code src/html_files/graph_template.html} relative to the current directory;
+ * if it does not exist there, a minimal template with the two placeholders is written to a
+ * temporary file and passed to the writer through {@code project_biu.render.template}, so running
+ * the benchmark never creates files in the working directory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dproject_biu.log.level=warn")
+public class HtmlGraphWriterBenchmark {
+    private static final String GRAPH = "bench-html";
+
+    @Param({"100", "1000"})
+    public int agents;
+
+    private Graph graph;
+    private Topic tail;
+    private GenericConfig config;
+    private long n;
+
+    @Setup
+    public void setup() throws IOException {
+        if (!Files.exists(Paths.get("src/html_files/graph_template.html"))) {
+            Path template = Files.createTempFile("graph_template", ".html");
+            template.toFile().deleteOnExit();
+            Files.write(template, ("<html><body>\n<!-- NODES_PLACEHOLDER -->\n<svg>\n<!-- EDGES_PLACEHOLDER -->\n"
+                    + "</svg>\n</body></html>\n").getBytes(StandardCharsets.UTF_8));
+            System.setProperty("project_biu.render.template", template.toString());
+        }
+
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get(GRAPH);
+        TopicManagerSingleton.reset(GRAPH);
+        config = new GenericConfig();
+        config.setConfFile(Configs.chain(agents, "propagation=topological").toString());
+        config.setTopicManager(tm);
+        config.create();
+        for (Topic t : tm.getTopics()) {
+            t.publish(new Message(t.getId()));
+        }
+        graph = tm.getGraph();
+        tail = tm.getTopic(tm.size() - 1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        config.close();
+        TopicManagerSingleton.remove(GRAPH);
+    }
+
+    @Benchmark
+    public byte[] writeGraphHtml() {
+        tail.publish(new Message(n++));
+        synchronized (graph) {
+            HtmlGraphWriter.writeGraphHtml(graph, GRAPH);
+        }
+        return HtmlGraphWriter.getPage(HtmlGraphWriter.pageName(GRAPH));
+    }
+}
@@ -0,0 +1,57 @@
+package project_biu.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import project_biu.graph.Message;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building a {@link Message} from each supported representation, and of deriving its text.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dproject_biu.log.level=warn")
+public class MessageBenchmark {
+
+    public double number = 1234.5678;
+    public String numericText = "1234.5678";
+    public String plainText = "hello world";
+    public byte[] numericBytes = "1234.5678".getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    public Message fromDouble() {
+        return new Message(number);
+    }
+
+    @Benchmark
+    public Message fromNumericString() {
+        return new Message(numericText);
+    }
+
+    @Benchmark
+    public Message fromPlainString() {
+        return new Message(plainText);
+    }
+
+    @Benchmark
+    public Message fromBytes() {
+        return new Message(numericBytes);
+    }
+
+    @Benchmark
+    public String doubleAsText() {
+        return new Message(number).asText();
+    }
+}
@@ -0,0 +1,82 @@
+package project_biu.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import project_biu.graph.Message;
+import project_biu.graph.ParallelAgent;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and single-hop latency of a {@link ParallelAgent}, per mailbox type and execution mode.
+ * <p>
+ * {@code enqueue} measures how fast one publisher can push into a mailbox of 1024 slots with the
+ * BLOCK policy while the agent drains it. {@code hop} sends one message and waits until the agent
+ * has handled it, so its sample time is the full hand-off latency.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dproject_biu.log.level=warn")
+public class ParallelAgentBenchmark {
+
+    @Param({"queue", "ring"})
+    public String mailbox;
+
+    @Param({"thread", "pool"})
+    public String executor;
+
+    private Agents.Counter counter;
+    private ParallelAgent agent;
+    private ExecutorService pool;
+    private Message message;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        counter = new Agents.Counter();
+        if (executor.equals("pool")) {
+            pool = ParallelAgent.newExecutor(ParallelAgent.Mode.POOL, 1);
+        }
+        ParallelAgent.WaitStrategy wait = mailbox.equals("ring") ? ParallelAgent.WaitStrategy.BLOCK : null;
+        agent = new ParallelAgent(counter, 1024, ParallelAgent.OverflowPolicy.BLOCK, 0, wait, pool);
+        message = new Message(1.0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        agent.close();
+        if (pool != null) pool.shutdownNow();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void enqueue() {
+        agent.callback("in", message);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long hop() {
+        long target = counter.count + 1;
+        agent.callback("in", message);
+        long seen;
+        while ((seen = counter.count) < target) {
+            Thread.onSpinWait();
+        }
+        return seen;
+    }
+}
@@ -0,0 +1,64 @@
+package project_biu.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import project_biu.server.RequestParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link RequestParser#parseRequest(BufferedReader)} on typical requests of the UI.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dproject_biu.log.level=warn")
+public class RequestParserBenchmark {
+
+    private static final String GET =
+            "GET /publish?topic=A&value=42.5&graph=default HTTP/1.1\r\n"
+            + "Host: localhost:8080\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64)\r\n"
+            + "Accept: text/html,application/xhtml+xml\r\n"
+            + "Accept-Language: en-US,en;q=0.9\r\n"
+            + "Connection: keep-alive\r\n"
+            + "\r\n";
+
+    private static final String POST_BODY = "topic=Temperature&message=21.75";
+    private static final String POST =
+            "POST /send HTTP/1.1\r\n"
+            + "Host: localhost:8080\r\n"
+            + "Content-Type: application/x-www-form-urlencoded\r\n"
+            + "Content-Length: " + POST_BODY.length() + "\r\n"
+            + "\r\n"
+            + POST_BODY;
+
+    @Param({"get", "post"})
+    public String request;
+
+    private String raw;
+
+    @Setup
+    public void setup() {
+        raw = request.equals("get") ? GET : POST;
+    }
+
+    @Benchmark
+    public RequestParser.RequestInfo parse() throws IOException {
+        return RequestParser.parseRequest(new BufferedReader(new StringReader(raw)));
+    }
+}
@@ -0,0 +1,57 @@
+package project_biu.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import project_biu.graph.Message;
+import project_biu.graph.Topic;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link Topic#publish(Message)} delivering directly to subscribers, by fan-out width.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dproject_biu.log.level=warn")
+public class TopicPublishBenchmark {
+
+    @Param({"1", "8", "64"})
+    public int fanout;
+
+    private Topic topic;
+    private Message message;
+    private long counter;
+
+    @Setup
+    public void setup() {
+        topic = new Topic("bench");
+        for (int i = 0; i < fanout; i++) {
+            topic.subscribe(new Agents.Sink("sink" + i));
+        }
+        message = new Message(1.0);
+    }
+
+    /** Publishes the same message object again and again. */
+    @Benchmark
+    public void publishShared() {
+        topic.publish(message);
+    }
+
+    /** Publishes a freshly created numeric message, as agents do. */
+    @Benchmark
+    public void publishNew() {
+        topic.publish(new Message(counter++));
+    }
+}
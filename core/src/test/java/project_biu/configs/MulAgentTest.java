@@ -0,0 +1,106 @@
+package project_biu.configs;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import project_biu.graph.Message;
+import project_biu.graph.TopicManagerSingleton;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.DoubleStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares {@link MulAgent}'s incremental product with a product reduced over a stream of the
+ * same inputs, including the sign of zero products and IEEE special values.
+ */
+class MulAgentTest {
+
+    private static final String[] INPUTS = {"A", "B", "C", "D"};
+
+    private TopicManagerSingleton.TopicManager tm;
+    private TopicManagerSingleton.TopicManager previous;
+    private final double[] values = new double[INPUTS.length];
+
+    @BeforeEach
+    void bindGraph() {
+        Arrays.fill(values, 1.0);
+        tm = TopicManagerSingleton.get("mul-agent-test");
+        previous = TopicManagerSingleton.bind(tm);
+        new MulAgent(INPUTS, new String[]{"R"});
+    }
+
+    @AfterEach
+    void removeGraph() {
+        TopicManagerSingleton.bind(previous);
+        TopicManagerSingleton.remove(tm.getGraphId());
+    }
+
+    // Publishes one input and returns the agent's output
+    private double publish(int input, double v) {
+        values[input] = v;
+        tm.getTopic(INPUTS[input]).publish(new Message(v));
+        return tm.getTopic("R").getLastMessage().asDouble;
+    }
+
+    // Publishes one input and checks that the output is exactly the stream's product
+    private double update(int input, double v) {
+        double out = publish(input, v);
+        assertEquals(expected(), out, () -> "after " + INPUTS[input] + " = " + v);
+        return out;
+    }
+
+    private double expected() {
+        return DoubleStream.of(values).reduce(1.0, (a, b) -> a * b);
+    }
+
+    @Test
+    void followsTheStreamProductOverRandomUpdates() {
+        Random random = new Random(7);
+        for (int i = 0; i < 10_000; i++) {
+            double v = random.nextInt(10) == 0 ? 0.0 : (random.nextDouble() + 0.5) * (random.nextBoolean() ? 1 : -1);
+            double product = publish(random.nextInt(INPUTS.length), v);
+            double e = expected();
+            assertEquals(e, product, Math.abs(e) * 1e-12, "update " + i);
+        }
+    }
+
+    @Test
+    void zeroProductsHaveTheStreamProductsSign() {
+        update(0, 0.0);
+        update(1, -2);
+        assertEquals(-0.0, expected());
+        update(2, -0.0);
+        update(3, -0.0);
+        update(0, 5);
+        update(2, 3);
+        update(3, 4); // no zeros left: the other factors are kept
+        assertEquals(-120.0, expected());
+    }
+
+    @Test
+    void handlesInfinitiesAndNaNLikeTheStreamProduct() {
+        update(0, Double.POSITIVE_INFINITY);
+        update(1, -2);
+        update(2, 0.0); // 0 * Infinity
+        assertEquals(Double.NaN, expected());
+        update(0, 4);
+        assertEquals(-0.0, publish(3, 3));
+        update(2, Double.NaN);
+        update(2, 1);
+        assertEquals(-24.0, expected());
+    }
+
+    @Test
+    void recoversFromOverflowAndUnderflow() {
+        update(0, 1e300);
+        update(1, 1e300);
+        update(0, 1e-300); // back in range after the product overflowed
+        assertEquals(1.0, expected(), 1e-12);
+        update(2, 1e-300);
+        update(3, 1e-300);
+        update(1, 1e300);
+    }
+}
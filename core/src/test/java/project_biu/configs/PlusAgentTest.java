@@ -0,0 +1,99 @@
+package project_biu.configs;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import project_biu.graph.Message;
+import project_biu.graph.TopicManagerSingleton;
+
+import java.util.Random;
+import java.util.stream.DoubleStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares {@link PlusAgent}'s incremental sum with {@link DoubleStream#sum()} over the same inputs.
+ */
+class PlusAgentTest {
+
+    private static final String[] INPUTS = {"A", "B", "C", "D"};
+
+    private TopicManagerSingleton.TopicManager tm;
+    private TopicManagerSingleton.TopicManager previous;
+    private final double[] values = new double[INPUTS.length];
+
+    @BeforeEach
+    void bindGraph() {
+        tm = TopicManagerSingleton.get("plus-agent-test");
+        previous = TopicManagerSingleton.bind(tm);
+        new PlusAgent(INPUTS, new String[]{"R"});
+    }
+
+    @AfterEach
+    void removeGraph() {
+        TopicManagerSingleton.bind(previous);
+        TopicManagerSingleton.remove(tm.getGraphId());
+    }
+
+    // Publishes one input and returns the agent's output
+    private double publish(int input, double v) {
+        values[input] = v;
+        tm.getTopic(INPUTS[input]).publish(new Message(v));
+        return tm.getTopic("R").getLastMessage().asDouble;
+    }
+
+    // Publishes one input and checks that the output is exactly the stream's sum
+    private double update(int input, double v) {
+        double out = publish(input, v);
+        assertEquals(expected(), out, () -> "after " + INPUTS[input] + " = " + v);
+        return out;
+    }
+
+    private double expected() {
+        return DoubleStream.of(values).sum();
+    }
+
+    @Test
+    void followsTheStreamSumOverRandomUpdates() {
+        Random random = new Random(42);
+        // Values replaced since the last recomputation still bound the rounding error
+        double[] replaced = new double[INPUTS.length];
+        for (int i = 0; i < 10_000; i++) {
+            int input = random.nextInt(INPUTS.length);
+            double v = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12));
+            replaced[i % replaced.length] = Math.abs(values[input]);
+            double sum = publish(input, v);
+            double scale = 0;
+            for (int j = 0; j < INPUTS.length; j++) scale += Math.abs(values[j]) + replaced[j];
+            assertEquals(expected(), sum, scale * 1e-15, "update " + i);
+        }
+    }
+
+    @Test
+    void matchesTheStreamSumExactlyAfterEveryInputChanged() {
+        publish(0, 1e16);
+        publish(1, 1);
+        publish(2, 1);
+        update(3, -1e16); // the fourth update recomputes the sum
+        assertEquals(2.0, expected());
+    }
+
+    @Test
+    void handlesInfinitiesAndNaNLikeTheStreamSum() {
+        update(0, Double.POSITIVE_INFINITY);
+        assertEquals(Double.POSITIVE_INFINITY, publish(1, 5));
+        update(1, Double.NEGATIVE_INFINITY);
+        assertEquals(Double.NaN, publish(1, Double.NaN));
+        update(0, 3);
+        update(1, 4);
+        assertEquals(7.0, publish(2, 0));
+    }
+
+    @Test
+    void overflowGivesTheStreamSumsInfinity() {
+        publish(0, Double.MAX_VALUE);
+        update(1, Double.MAX_VALUE);
+        assertEquals(Double.POSITIVE_INFINITY, expected());
+        update(1, -Double.MAX_VALUE);
+    }
+}
@@ -0,0 +1,119 @@
+package project_biu.configs;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import project_biu.graph.Message;
+import project_biu.graph.ParallelAgent;
+import project_biu.graph.ShardedScheduler;
+import project_biu.graph.TopicManagerSingleton;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.DoubleStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Runs two independent pipelines of {@link PlusAgent}s and {@link MulAgent}s under
+ * {@code propagation=sharded} and compares their settled outputs with stream computations over
+ * the last published inputs.
+ */
+class ShardedPropagationTest {
+
+    private static final String CONFIG = String.join("\n",
+            "propagation=sharded",
+            "workers=2",
+            "project_biu.configs.PlusAgent", "A,B", "S",
+            "project_biu.configs.MulAgent", "S,C", "P",
+            "project_biu.configs.MulAgent", "X,Y", "Q",
+            "project_biu.configs.PlusAgent", "Q,X", "R",
+            "");
+
+    @TempDir
+    Path dir;
+
+    private TopicManagerSingleton.TopicManager tm;
+    private GenericConfig config;
+
+    @BeforeEach
+    void createGraph() throws IOException {
+        Path file = dir.resolve("sharded.conf");
+        Files.writeString(file, CONFIG);
+        tm = TopicManagerSingleton.get("sharded-test");
+        config = new GenericConfig();
+        config.setTopicManager(tm);
+        config.setConfFile(file.toString());
+        config.create();
+    }
+
+    @AfterEach
+    void removeGraph() {
+        config.close();
+        TopicManagerSingleton.remove(tm.getGraphId());
+    }
+
+    @Test
+    void eachPipelineRunsOnItsOwnShard() {
+        ShardedScheduler scheduler = ShardedScheduler.of(tm.getTopic("A"));
+        assertNotNull(scheduler);
+        assertEquals(2, scheduler.getShardCount());
+        assertSame(scheduler, ShardedScheduler.of(tm.getTopic("R")));
+        assertEquals(List.of("shard-0", "shard-1"),
+                scheduler.getRunners().stream().map(ParallelAgent::getName).collect(Collectors.toList()));
+        assertEquals(2, scheduler.getAgentCount(0));
+        assertEquals(2, scheduler.getAgentCount(1));
+    }
+
+    @Test
+    @Timeout(30)
+    void settledOutputsMatchStreamComputations() throws InterruptedException {
+        Random random = new Random(12);
+        double a = 0, b = 0, c = 1, x = 0, y = 1;
+        for (int i = 0; i < 5_000; i++) {
+            double v = random.nextInt(2001) - 1000;
+            switch (random.nextInt(5)) {
+                case 0: a = publish("A", v); break;
+                case 1: b = publish("B", v); break;
+                case 2: c = publish("C", v); break;
+                case 3: x = publish("X", v); break;
+                default: y = publish("Y", v);
+            }
+        }
+
+        double s = DoubleStream.of(a, b).sum();
+        double p = DoubleStream.of(s, c).reduce(1.0, (l, r) -> l * r);
+        double q = DoubleStream.of(x, y).reduce(1.0, (l, r) -> l * r);
+        double r = DoubleStream.of(q, x).sum();
+        awaitValue("P", p);
+        awaitValue("R", r);
+        assertEquals(s, value("S"));
+        assertEquals(q, value("Q"));
+    }
+
+    private double publish(String topic, double v) {
+        tm.getTopic(topic).publish(new Message(v));
+        return v;
+    }
+
+    private double value(String topic) {
+        Message m = tm.getTopic(topic).getLastMessage();
+        return m == null ? Double.NaN : m.asDouble;
+    }
+
+    // Waits until the shards have delivered everything and the topic holds the expected value;
+    // the test times out if it never does
+    private void awaitValue(String topic, double expected) throws InterruptedException {
+        while (value(topic) != expected) {
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package project_biu.graph;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Tests for {@link RingMailbox}: capacity, ordering, and many producers against one consumer.
+ */
+class RingMailboxTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int PER_PRODUCER = 20_000;
+
+    @Test
+    void capacityIsRoundedUpToAPowerOfTwo() {
+        RingMailbox box = new RingMailbox(3, ParallelAgent.WaitStrategy.PARK);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(box.offer("T", new Message(i)), "slot " + i);
+        }
+        assertFalse(box.offer("T", new Message(4)));
+        assertEquals(4, box.size());
+    }
+
+    @Test
+    void drainReturnsEntriesInOrderAndFreesTheirSlots() {
+        RingMailbox box = new RingMailbox(4, ParallelAgent.WaitStrategy.PARK);
+        for (int i = 0; i < 4; i++) box.offer("T" + i, new Message(i));
+
+        String[] topics = new String[8];
+        Message[] msgs = new Message[8];
+        assertEquals(3, box.drain(topics, msgs, 3));
+        for (int i = 0; i < 3; i++) {
+            assertEquals("T" + i, topics[i]);
+            assertEquals(i, msgs[i].asDouble);
+        }
+
+        assertTrue(box.offer("T4", new Message(4)));
+        assertEquals(2, box.drain(topics, msgs, 8));
+        assertEquals("T3", topics[0]);
+        assertEquals("T4", topics[1]);
+        assertTrue(box.isEmpty());
+        assertEquals(0, box.drain(topics, msgs, 8));
+    }
+
+    @Test
+    void conflationMarkersAreKept() {
+        RingMailbox box = new RingMailbox(2, ParallelAgent.WaitStrategy.PARK);
+        box.offer("T", null);
+        String[] topics = new String[1];
+        Message[] msgs = {new Message(1)};
+        assertEquals(1, box.drain(topics, msgs, 1));
+        assertEquals("T", topics[0]);
+        assertNull(msgs[0]);
+    }
+
+    @Test
+    void producersCannotEvict() {
+        RingMailbox box = new RingMailbox(2, ParallelAgent.WaitStrategy.PARK);
+        assertThrows(UnsupportedOperationException.class, box::evictOldest);
+    }
+
+    @Test
+    void offerWithTimeoutGivesUpWhenFull() throws InterruptedException {
+        RingMailbox box = new RingMailbox(2, ParallelAgent.WaitStrategy.PARK);
+        box.offer("T", new Message(0));
+        box.offer("T", new Message(1));
+        assertFalse(box.offer("T", new Message(2), TimeUnit.MILLISECONDS.toNanos(20)));
+    }
+
+    @ParameterizedTest
+    @EnumSource(ParallelAgent.WaitStrategy.class)
+    @Timeout(60)
+    void everyMessageArrivesOnceAndInProducerOrder(ParallelAgent.WaitStrategy wait) throws Exception {
+        assumeTrue(wait != ParallelAgent.WaitStrategy.SPIN || Runtime.getRuntime().availableProcessors() > 1,
+                "busy-spinning threads starve each other on a single core");
+        RingMailbox box = new RingMailbox(64, wait);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            String topic = "P" + p;
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < PER_PRODUCER; i++) {
+                        assertTrue(box.offer(topic, new Message(i), 0));
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            t.setDaemon(true); // a failed consumer leaves them blocked on a full mailbox
+            t.start();
+            producers.add(t);
+        }
+
+        int[] next = new int[PRODUCERS];
+        String[] topics = new String[16];
+        Message[] msgs = new Message[16];
+        start.countDown();
+        int received = 0;
+        while (received < PRODUCERS * PER_PRODUCER) {
+            box.await();
+            int n = box.drain(topics, msgs, topics.length);
+            for (int i = 0; i < n; i++) {
+                int p = topics[i].charAt(1) - '0';
+                assertEquals(next[p]++, (int) msgs[i].asDouble, "order of " + topics[i]);
+            }
+            received += n;
+        }
+
+        for (Thread t : producers) t.join();
+        assertNull(failure.get());
+        for (int p = 0; p < PRODUCERS; p++) {
+            assertEquals(PER_PRODUCER, next[p]);
+        }
+        assertTrue(box.isEmpty());
+        assertEquals(0, box.size());
+    }
+}
@@ -0,0 +1,126 @@
+package project_biu.server;
+
+import org.junit.jupiter.api.Test;
+import project_biu.server.RequestParser.RequestInfo;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link RequestParser}, reading requests the way the servers do: from raw bytes
+ * decoded as ISO-8859-1, several requests back to back on one connection.
+ */
+class RequestParserTest {
+
+    // A reader over the bytes as a server's connection reader sees them
+    private static BufferedReader connection(byte[]... requests) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] r : requests) bytes.write(r);
+        return new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(bytes.toByteArray()), StandardCharsets.ISO_8859_1));
+    }
+
+    private static byte[] post(String uri, String contentType, byte[] body) {
+        String head = "POST " + uri + " HTTP/1.1\r\n"
+                + "Host: localhost\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Length: " + body.length + "\r\n\r\n";
+        byte[] h = head.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] request = new byte[h.length + body.length];
+        System.arraycopy(h, 0, request, 0, h.length);
+        System.arraycopy(body, 0, request, h.length, body.length);
+        return request;
+    }
+
+    private static byte[] get(String uri) {
+        return ("GET " + uri + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    void parsesRequestLineQueryAndHeaders() throws IOException {
+        RequestInfo ri = RequestParser.parseRequest(connection(get("/publish/now?topic=A&value=1%2C5&name=%C3%A9t%C3%A9")));
+        assertEquals("GET", ri.getHttpCommand());
+        assertEquals("HTTP/1.1", ri.getHttpVersion());
+        assertEquals("/publish/now", ri.getUri());
+        assertArrayEquals(new String[]{"publish", "now"}, ri.getUriSegments());
+        assertEquals("A", ri.getParameters().get("topic"));
+        assertEquals("1,5", ri.getParameters().get("value"));
+        assertEquals("été", ri.getParameters().get("name"));
+        assertEquals("localhost", ri.getHeader("host"));
+        assertNull(ri.getHeader("Accept"));
+        assertEquals(0, ri.getContent().length);
+    }
+
+    @Test
+    void requestLineWithoutVersionIsHttp10() throws IOException {
+        RequestInfo ri = RequestParser.parseRequest(connection("GET /\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1)));
+        assertEquals("HTTP/1.0", ri.getHttpVersion());
+        assertEquals(0, ri.getUriSegments().length);
+    }
+
+    @Test
+    void bodyIsReadByItsByteLength() throws IOException {
+        byte[] body = "héllo → wörld €".getBytes(StandardCharsets.UTF_8);
+        RequestInfo ri = RequestParser.parseRequest(connection(post("/echo", "text/plain", body)));
+        assertArrayEquals(body, ri.getContent());
+        assertEquals("héllo → wörld €", new String(ri.getContent(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void pipelinedRequestsAreParsedInOrder() throws IOException {
+        byte[] first = "ünïcödé 1".getBytes(StandardCharsets.UTF_8);
+        byte[] second = "€€€".getBytes(StandardCharsets.UTF_8);
+        BufferedReader in = connection(
+                post("/echo", "text/plain", first),
+                get("/publish?topic=A&value=2"),
+                post("/echo", "text/plain", second),
+                get("/last"));
+
+        RequestInfo r1 = RequestParser.parseRequest(in);
+        RequestInfo r2 = RequestParser.parseRequest(in);
+        RequestInfo r3 = RequestParser.parseRequest(in);
+        RequestInfo r4 = RequestParser.parseRequest(in);
+
+        assertArrayEquals(first, r1.getContent());
+        assertEquals("/publish", r2.getUri());
+        assertEquals("2", r2.getParameters().get("value"));
+        assertArrayEquals(second, r3.getContent());
+        assertEquals("/last", r4.getUri());
+        assertEquals(-1, in.read()); // nothing left over
+    }
+
+    @Test
+    void formBodyIsDecodedAsUtf8() throws IOException {
+        byte[] body = "topic=caf%C3%A9&message=na%C3%AFve+value&raw=ñ".getBytes(StandardCharsets.UTF_8);
+        BufferedReader in = connection(
+                post("/publish", "application/x-www-form-urlencoded; charset=UTF-8", body), get("/next"));
+        RequestInfo ri = RequestParser.parseRequest(in);
+        assertEquals("café", ri.getParameters().get("topic"));
+        assertEquals("naïve value", ri.getParameters().get("message"));
+        assertEquals("ñ", ri.getParameters().get("raw"));
+        assertEquals("/next", RequestParser.parseRequest(in).getUri());
+    }
+
+    @Test
+    void truncatedBodyKeepsWhatArrived() throws IOException {
+        byte[] request = post("/echo", "text/plain", "abcdef".getBytes(StandardCharsets.UTF_8));
+        byte[] truncated = Arrays.copyOf(request, request.length - 2);
+        RequestInfo ri = RequestParser.parseRequest(connection(truncated));
+        assertEquals("abcd", new String(ri.getContent(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void emptyConnectionIsAnError() {
+        assertThrows(IOException.class, () -> RequestParser.parseRequest(connection()));
+    }
+}
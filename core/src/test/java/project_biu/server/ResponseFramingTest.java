@@ -0,0 +1,121 @@
+package project_biu.server;
+
+import org.junit.jupiter.api.Test;
+import project_biu.server.RequestParser.RequestInfo;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link ResponseFraming}: when a connection is kept open, and how servlet responses
+ * are framed so that pipelined responses can be told apart by the client.
+ */
+class ResponseFramingTest {
+
+    private static RequestInfo request(String version, String connection) throws IOException {
+        String head = "GET / " + version + "\r\nHost: localhost\r\n"
+                + (connection != null ? "Connection: " + connection + "\r\n" : "") + "\r\n";
+        return RequestParser.parseRequest(new BufferedReader(new StringReader(head)));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(byte[] b) {
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void keepAliveFollowsVersionAndConnectionHeader() throws IOException {
+        assertTrue(ResponseFraming.keepAlive(request("HTTP/1.1", null)));
+        assertTrue(ResponseFraming.keepAlive(request("HTTP/1.1", "keep-alive")));
+        assertFalse(ResponseFraming.keepAlive(request("HTTP/1.1", "close")));
+        assertFalse(ResponseFraming.keepAlive(request("HTTP/1.1", "Upgrade, Close")));
+        assertFalse(ResponseFraming.keepAlive(request("HTTP/1.0", null)));
+        assertTrue(ResponseFraming.keepAlive(request("HTTP/1.0", "Keep-Alive")));
+    }
+
+    @Test
+    void addsContentLengthCountedInBytes() {
+        byte[] framed = ResponseFraming.frame(bytes("HTTP/1.1 200 OK\nContent-Type: text/plain; charset=utf-8\n\nnaïve €"));
+        assertNotNull(framed);
+        assertEquals("HTTP/1.1 200 OK\r\n"
+                + "Content-Type: text/plain; charset=utf-8\r\n"
+                + "Content-Length: 10\r\n"
+                + "Connection: keep-alive\r\n"
+                + "\r\n"
+                + "naïve €", text(framed));
+    }
+
+    @Test
+    void keepsAMatchingContentLengthAndConnectionHeader() {
+        String response = "HTTP/1.1 200 OK\r\nContent-Length: 2\r\nConnection: keep-alive\r\n\r\nok";
+        assertEquals(response, text(ResponseFraming.frame(bytes(response))));
+    }
+
+    @Test
+    void framesAnEmptyBody() {
+        assertEquals("HTTP/1.1 204 No Content\r\nContent-Length: 0\r\nConnection: keep-alive\r\n\r\n",
+                text(ResponseFraming.frame(bytes("HTTP/1.1 204 No Content\r\n\r\n"))));
+    }
+
+    @Test
+    void refusesResponsesThatCannotBeFramed() {
+        assertNull(ResponseFraming.frame(bytes("")));
+        assertNull(ResponseFraming.frame(bytes("<html>no status line</html>")));
+        assertNull(ResponseFraming.frame(bytes("HTTP/1.1 200 OK\r\nContent-Type: text/plain")));
+        assertNull(ResponseFraming.frame(bytes("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nok")));
+        assertNull(ResponseFraming.frame(bytes("HTTP/1.1 200 OK\r\nContent-Length: x\r\n\r\nok")));
+        assertNull(ResponseFraming.frame(bytes("HTTP/1.1 200 OK\r\nConnection: close\r\n\r\nok")));
+        assertNull(ResponseFraming.frame(bytes("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n2\r\nok\r\n0\r\n\r\n")));
+    }
+
+    @Test
+    void pipelinedResponsesCanBeSplitByTheirLength() throws IOException {
+        String[] bodies = {"first", "zwëite ✓", "", "<p>\n\nblank lines in the body\n</p>"};
+        ByteArrayOutputStream connection = new ByteArrayOutputStream();
+        for (String body : bodies) {
+            connection.write(ResponseFraming.frame(bytes("HTTP/1.1 200 OK\nContent-Type: text/html\n\n" + body)));
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(connection.toByteArray()));
+        List<String> received = new ArrayList<>();
+        while (in.available() > 0) {
+            int length = -1;
+            String line;
+            while (!(line = readLine(in)).isEmpty()) {
+                if (line.startsWith("Content-Length: ")) length = Integer.parseInt(line.substring(16));
+            }
+            byte[] body = new byte[length];
+            in.readFully(body);
+            received.add(text(body));
+        }
+        assertEquals(List.of(bodies), received);
+    }
+
+    // One CRLF-terminated head line
+    private static String readLine(DataInputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            assertTrue(c >= 0, "head ended early");
+            sb.append((char) c);
+        }
+        assertEquals('\r', sb.charAt(sb.length() - 1), "head lines end with CRLF");
+        return sb.substring(0, sb.length() - 1);
+    }
+}
@@ -0,0 +1,254 @@
+package project_biu.server;
+
+import org.junit.jupiter.api.Test;
+import project_biu.server.RequestParser.RequestInfo;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link WebSocket}: the upgrade handshake, unmasking, fragmentation, control frames,
+ * the close codes of protocol errors, and the framing of sent messages.
+ */
+class WebSocketTest {
+
+    private static final String UPGRADE = "GET /ws HTTP/1.1\r\n"
+            + "Host: localhost\r\n"
+            + "Upgrade: websocket\r\n"
+            + "Connection: Upgrade\r\n"
+            + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+            + "Sec-WebSocket-Version: 13\r\n\r\n";
+
+    private static final byte[] MASK = {0x37, (byte) 0xfa, 0x21, 0x3d};
+
+    /** A frame as the server wrote it. */
+    private static final class Frame {
+        final int b0;
+        final byte[] payload;
+
+        Frame(int b0, byte[] payload) {
+            this.b0 = b0;
+            this.payload = payload;
+        }
+
+        int closeCode() {
+            return ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF);
+        }
+    }
+
+    private final ByteArrayOutputStream toClient = new ByteArrayOutputStream();
+
+    private static RequestInfo parse(String request) throws IOException {
+        return RequestParser.parseRequest(new BufferedReader(new StringReader(request)));
+    }
+
+    // Completes the handshake over the given client frames and drops the 101 response
+    private WebSocket open(byte[]... frames) throws IOException {
+        ByteArrayOutputStream in = new ByteArrayOutputStream();
+        for (byte[] f : frames) in.write(f);
+        WebSocket ws = WebSocket.accept(parse(UPGRADE), new ByteArrayInputStream(in.toByteArray()), toClient);
+        toClient.reset();
+        return ws;
+    }
+
+    // A client frame: masked, with the given first byte
+    private static byte[] frame(int b0, byte[] payload) {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        b.write(b0);
+        int len = payload.length;
+        if (len < 126) {
+            b.write(0x80 | len);
+        } else if (len < 65536) {
+            b.write(0x80 | 126);
+            b.write(len >> 8);
+            b.write(len);
+        } else {
+            b.write(0x80 | 127);
+            for (int i = 7; i >= 0; i--) b.write((int) ((long) len >> (8 * i)));
+        }
+        b.write(MASK, 0, 4);
+        for (int i = 0; i < len; i++) b.write(payload[i] ^ MASK[i & 3]);
+        return b.toByteArray();
+    }
+
+    private static byte[] frame(int b0, String text) {
+        return frame(b0, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Parses every frame the server wrote
+    private List<Frame> sent() throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(toClient.toByteArray()));
+        List<Frame> frames = new ArrayList<>();
+        while (in.available() > 0) {
+            int b0 = in.readUnsignedByte();
+            int b1 = in.readUnsignedByte();
+            assertEquals(0, b1 & 0x80, "server frames must not be masked");
+            long len = b1 & 0x7F;
+            if (len == 126) len = in.readUnsignedShort();
+            else if (len == 127) len = in.readLong();
+            byte[] payload = new byte[(int) len];
+            in.readFully(payload);
+            frames.add(new Frame(b0, payload));
+        }
+        return frames;
+    }
+
+    // Reads from a connection the server must close with the given code
+    private void assertClosedWith(int code, byte[]... frames) throws IOException {
+        WebSocket ws = open(frames);
+        assertNull(ws.readText());
+        assertTrue(ws.isClosed());
+        List<Frame> sent = sent();
+        assertEquals(1, sent.size());
+        assertEquals(0x88, sent.get(0).b0);
+        assertEquals(code, sent.get(0).closeCode());
+    }
+
+    @Test
+    void handshakeAnswersWithTheAcceptKey() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WebSocket ws = WebSocket.accept(parse(UPGRADE), new ByteArrayInputStream(new byte[0]), out);
+        assertNotNull(ws);
+        String response = out.toString(StandardCharsets.ISO_8859_1);
+        assertTrue(response.startsWith("HTTP/1.1 101 Switching Protocols\r\n"));
+        assertTrue(response.contains("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo=\r\n"), response);
+    }
+
+    @Test
+    void plainRequestIsRefused() throws IOException {
+        RequestInfo ri = parse("GET /ws HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        assertFalse(WebSocket.isUpgrade(ri));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertNull(WebSocket.accept(ri, new ByteArrayInputStream(new byte[0]), out));
+        assertTrue(out.toString(StandardCharsets.ISO_8859_1).startsWith("HTTP/1.1 400 "));
+    }
+
+    @Test
+    void unmasksTextMessages() throws IOException {
+        WebSocket ws = open(frame(0x81, "pub A 1"), frame(0x81, "héllo → wörld"));
+        assertEquals("pub A 1", ws.readText());
+        assertEquals("héllo → wörld", ws.readText());
+        assertNull(ws.readText()); // end of stream
+        assertTrue(ws.isClosed());
+    }
+
+    @Test
+    void readsExtendedPayloadLengths() throws IOException {
+        char[] medium = new char[300];
+        char[] large = new char[70_000];
+        Arrays.fill(medium, 'm');
+        Arrays.fill(large, 'l');
+        WebSocket ws = open(frame(0x81, new String(medium)), frame(0x81, new String(large)));
+        assertEquals(new String(medium), ws.readText());
+        assertEquals(new String(large), ws.readText());
+    }
+
+    @Test
+    void joinsFragmentsAndAnswersPingsInBetween() throws IOException {
+        byte[] euro = "€".getBytes(StandardCharsets.UTF_8);
+        WebSocket ws = open(
+                frame(0x01, new byte[]{'a', euro[0]}), // a character split across frames
+                frame(0x89, "ping"),
+                frame(0x00, new byte[]{euro[1], euro[2], 'b'}),
+                frame(0x8A, "pong"),
+                frame(0x80, "c"));
+        assertEquals("a€bc", ws.readText());
+        List<Frame> sent = sent();
+        assertEquals(1, sent.size());
+        assertEquals(0x8A, sent.get(0).b0);
+        assertArrayEquals("ping".getBytes(StandardCharsets.UTF_8), sent.get(0).payload);
+    }
+
+    @Test
+    void closeFrameIsAnsweredWithNormalClosure() throws IOException {
+        assertClosedWith(1000, frame(0x88, new byte[]{0x03, (byte) 0xE8}));
+    }
+
+    @Test
+    void unmaskedFrameIsAProtocolError() throws IOException {
+        assertClosedWith(1002, new byte[]{(byte) 0x81, 0x02, 'h', 'i'});
+    }
+
+    @Test
+    void reservedBitsAreAProtocolError() throws IOException {
+        assertClosedWith(1002, frame(0xC1, "rsv1"));
+        toClient.reset();
+        assertClosedWith(1002, frame(0x91, "rsv3"));
+    }
+
+    @Test
+    void reservedOpcodesAreAProtocolError() throws IOException {
+        for (int op : new int[]{0x3, 0x7, 0xB, 0xF}) {
+            toClient.reset();
+            assertClosedWith(1002, frame(0x80 | op, "x"));
+        }
+    }
+
+    @Test
+    void fragmentedOrLongControlFramesAreAProtocolError() throws IOException {
+        assertClosedWith(1002, frame(0x09, "ping"));
+        toClient.reset();
+        assertClosedWith(1002, frame(0x89, new byte[126]));
+    }
+
+    @Test
+    void misplacedContinuationsAreAProtocolError() throws IOException {
+        assertClosedWith(1002, frame(0x80, "orphan"));
+        toClient.reset();
+        assertClosedWith(1002, frame(0x01, "first"), frame(0x81, "second"));
+    }
+
+    @Test
+    void binaryMessageIsRefusedOnItsFirstFrame() throws IOException {
+        byte[] header = Arrays.copyOf(frame(0x02, new byte[WebSocket.MAX_MESSAGE / 2]), 14);
+        assertClosedWith(1003, header); // the payload itself is never read
+    }
+
+    @Test
+    void oversizedMessageIsRefused() throws IOException {
+        byte[] half = new byte[WebSocket.MAX_MESSAGE / 2 + 1];
+        Arrays.fill(half, (byte) 'x');
+        assertClosedWith(1009, frame(0x01, half), frame(0x80, half));
+    }
+
+    @Test
+    void sendTextUsesUnmaskedFramesOfTheRightLength() throws IOException {
+        WebSocket ws = open();
+        char[] large = new char[70_000];
+        Arrays.fill(large, 'l');
+        ws.sendText("hi");
+        ws.sendText("€".repeat(100));
+        ws.sendText(new String(large));
+        List<Frame> sent = sent();
+        assertEquals(3, sent.size());
+        for (Frame f : sent) assertEquals(0x81, f.b0);
+        assertEquals("hi", new String(sent.get(0).payload, StandardCharsets.UTF_8));
+        assertEquals(300, sent.get(1).payload.length);
+        assertEquals(70_000, sent.get(2).payload.length);
+    }
+
+    @Test
+    void nothingIsSentAfterClose() throws IOException {
+        WebSocket ws = open();
+        ws.close(1001, "going away");
+        assertEquals(1001, sent().get(0).closeCode());
+        assertTrue(ws.isClosed());
+        assertThrows(IOException.class, () -> ws.sendText("late"));
+    }
+}
@@ -2,9 +2,13 @@ package project_biu;
 
 import project_biu.server.HTTPServer;
 import project_biu.server.MyHTTPServer;
+import project_biu.server.NioHTTPServer;
 import project_biu.servlets.ConfLoader;
 import project_biu.servlets.TopicDisplayer;
 import project_biu.servlets.HtmlLoader;
+import project_biu.servlets.MetricsServlet;
+import project_biu.servlets.TopicEventsServlet;
+import project_biu.servlets.TopicSocketServlet;
 
 /**
  * Entry point for the Publisher/Subscriber visualization server.
@@ -22,7 +26,10 @@ public class Main {
      */
     public static void main(String[] args) throws Exception {
         // Create a new HTTP server listening on port 8080, with thread pool size 6
-        HTTPServer server = new MyHTTPServer(8080, 6);
+        // (-Dproject_biu.server=nio multiplexes the connections over selector threads instead)
+        HTTPServer server = "nio".equals(System.getProperty("project_biu.server"))
+                ? new NioHTTPServer(8080, 6)
+                : new MyHTTPServer(8080, 6);
 
         // Register servlet for handling GET /publish (sending topic values)
         server.addServlet("GET", "/publish", new TopicDisplayer());
@@ -33,6 +40,15 @@ public class Main {
         // Register static file handler for serving HTML files (e.g., index.html)
         server.addServlet("GET", "/app/", new HtmlLoader("src/html_files"));
 
+        // Register runtime statistics (Prometheus text, or JSON with ?format=json)
+        server.addServlet("GET", "/metrics", new MetricsServlet());
+
+        // Register the Server-Sent Events stream of topic value changes
+        server.addServlet("GET", "/events", new TopicEventsServlet());
+
+        // Register the WebSocket endpoint for publishing and subscribing over one connection
+        server.addServlet("GET", "/ws", new TopicSocketServlet());
+
         // Start the server
         server.start();
 
@@ -1,13 +1,23 @@
 package project_biu.configs;
 
 import project_biu.graph.Agent;
+import project_biu.graph.Graph;
 import project_biu.graph.ParallelAgent;
+import project_biu.graph.PropagationEngine;
+import project_biu.graph.ShardedScheduler;
+import project_biu.graph.Topic;
+import project_biu.graph.TopicManagerSingleton;
+import project_biu.util.Log;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 /**
  * GenericConfig loads a configuration file that defines a list of agents using reflection.
@@ -17,12 +27,61 @@ import java.util.List;
  * Line 2: Comma-separated list of input topics (e.g., A,B)
  * Line 3: Comma-separated list of output topics (e.g., C)
  * </pre>
- * Each agent is wrapped in a {@link ParallelAgent} for asynchronous processing.
+ * Each agent is wrapped in a {@link ParallelAgent} for asynchronous processing, unless another
+ * {@link Propagation} is selected: topological propagation runs agents synchronously under a
+ * {@link PropagationEngine}, and sharded propagation runs each connected pipeline on one worker
+ * of a {@link ShardedScheduler}.
+ * <p>
+ * Lines of the form {@code key=value} are global settings rather than agent lines:
+ * <pre>
+ * executor=thread|pool|virtual   how agents are run (default: thread, see {@link ParallelAgent.Mode})
+ * workers=8                      threads for executor=pool or shards for propagation=sharded (default: CPUs)
+ * capacity=10                    default mailbox capacity per agent
+ * overflow=block                 default mailbox overflow policy (see {@link ParallelAgent.OverflowPolicy})
+ * timeout=0                      milliseconds overflow=block waits before dropping (0 = forever)
+ * mailbox=queue|ring             blocking queue (default) or lock-free ring buffer mailbox
+ * wait=block|park|yield|spin     how a ring mailbox waits (default: block, see {@link ParallelAgent.WaitStrategy})
+ * propagation=async|topological|sharded  how messages propagate (default: async, see {@link Propagation})
+ * cutoff=off|exact|0.001         change detection on every topic (see {@link Topic#setChangeEpsilon(double)})
+ * </pre>
+ * The mailbox settings can also be given per agent after the class name, and {@code cutoff}
+ * given there applies to that agent's output topics, overriding the global setting:
+ * <pre>
+ * project_biu.configs.PlusAgent capacity=100 overflow=conflate cutoff=exact
+ * </pre>
  */
 public class GenericConfig implements Config {
 
-    private final List<ParallelAgent> agents = new ArrayList<>();
+    /**
+     * How messages travel between agents.
+     */
+    public enum Propagation {
+        /** Every agent runs behind its own {@link ParallelAgent} mailbox. */
+        ASYNC,
+        /** Agents run synchronously and glitch-free under a {@link PropagationEngine}. */
+        TOPOLOGICAL,
+        /**
+         * Connected components are spread over {@code workers} threads by a {@link ShardedScheduler};
+         * agents in the same component call each other directly.
+         */
+        SHARDED
+    }
+
+    private final List<Agent> agents = new ArrayList<>();
     private String confFile;
+    private ParallelAgent.Mode mode = ParallelAgent.Mode.THREAD;
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private ExecutorService executor;
+    private int capacity = 10;
+    private ParallelAgent.OverflowPolicy overflow = ParallelAgent.OverflowPolicy.BLOCK;
+    private long timeoutMillis = 0;
+    private boolean ringMailbox = false;
+    private ParallelAgent.WaitStrategy waitStrategy = ParallelAgent.WaitStrategy.BLOCK;
+    private Propagation propagation = Propagation.ASYNC;
+    private PropagationEngine engine;
+    private ShardedScheduler scheduler;
+    private double cutoff = -1;
+    private TopicManagerSingleton.TopicManager topicManager;
 
     /**
      * Sets the path to the configuration file.
@@ -33,6 +92,46 @@ public class GenericConfig implements Config {
         this.confFile = filename;
     }
 
+    /**
+     * Selects how agents are executed. Settings in the config file take precedence.
+     *
+     * @param mode    the execution mode
+     * @param workers number of worker threads when {@code mode} is {@link ParallelAgent.Mode#POOL}
+     */
+    public void setExecutionMode(ParallelAgent.Mode mode, int workers) {
+        this.mode = mode;
+        this.workers = workers;
+    }
+
+    /**
+     * Selects synchronous topological propagation instead of asynchronous agents.
+     * Settings in the config file take precedence.
+     *
+     * @param topological true to run agents under a {@link PropagationEngine}
+     */
+    public void setTopologicalPropagation(boolean topological) {
+        this.propagation = topological ? Propagation.TOPOLOGICAL : Propagation.ASYNC;
+    }
+
+    /**
+     * Selects how messages propagate between agents. Settings in the config file take precedence.
+     *
+     * @param propagation the propagation strategy
+     */
+    public void setPropagation(Propagation propagation) {
+        this.propagation = propagation;
+    }
+
+    /**
+     * Selects the graph whose topic registry the agents are created in.
+     * Defaults to the manager returned by {@link TopicManagerSingleton#get()} when {@link #create()} runs.
+     *
+     * @param topicManager the graph's topic manager
+     */
+    public void setTopicManager(TopicManagerSingleton.TopicManager topicManager) {
+        this.topicManager = topicManager;
+    }
+
     /**
      * Parses the configuration file and dynamically instantiates agents using reflection.
      * Each group of 3 lines defines one agent:
@@ -46,26 +145,52 @@ public class GenericConfig implements Config {
      * A,B
      * R1
      * </pre>
+     * The agents are created with the selected topic manager bound to the calling thread
+     * (see {@link TopicManagerSingleton#bind}).
      */
     @Override
     public void create() {
+        if (topicManager == null) {
+            topicManager = TopicManagerSingleton.get();
+        }
+        TopicManagerSingleton.TopicManager prev = TopicManagerSingleton.bind(topicManager);
+        try {
+            load();
+        } finally {
+            TopicManagerSingleton.bind(prev);
+        }
+    }
+
+    // Reads the config file and creates the agents in the bound topic manager
+    private void load() {
         try (BufferedReader reader = new BufferedReader(new FileReader(confFile))) {
             List<String> lines = new ArrayList<>();
             String line;
             while ((line = reader.readLine()) != null) {
-                if (!line.trim().isEmpty()) {
-                    lines.add(line.trim());
-                    System.out.println("📄 Line: " + line.trim());
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                if (Log.DEBUG) Log.debug("📄 Line: " + line);
+                int eq = line.indexOf('=');
+                if (eq > 0 && !line.substring(0, eq).contains(" ")) {
+                    applySetting(line.substring(0, eq).trim(), line.substring(eq + 1).trim());
+                } else {
+                    lines.add(line);
                 }
             }
 
             if (lines.size() % 3 != 0) {
-                System.err.println("❗ Invalid config file: Each agent must be defined by 3 lines.");
+                Log.error("❗ Invalid config file: Each agent must be defined by 3 lines.");
                 return;
             }
 
+            if (propagation == Propagation.ASYNC) {
+                executor = ParallelAgent.newExecutor(mode, workers);
+            }
+
+            Map<String, Double> outputCutoffs = new LinkedHashMap<>();
             for (int i = 0; i < lines.size(); i += 3) {
-                String className = lines.get(i);
+                String[] head = lines.get(i).split("\\s+");
+                String className = head[0];
                 String[] subs = lines.get(i + 1).split(",");
                 String[] pubs = lines.get(i + 2).split(",");
 
@@ -73,23 +198,204 @@ public class GenericConfig implements Config {
                 Constructor<?> ctor = cls.getConstructor(String[].class, String[].class);
                 Agent a = (Agent) ctor.newInstance((Object) subs, (Object) pubs);
 
-                ParallelAgent pa = new ParallelAgent(a, 10);
+                for (int j = 1; j < head.length; j++) {
+                    if (head[j].toLowerCase(Locale.ROOT).startsWith("cutoff=")) {
+                        double eps = parseCutoff(head[j].substring("cutoff=".length()));
+                        for (String p : pubs) outputCutoffs.put(p, eps);
+                    }
+                }
+
+                if (propagation != Propagation.ASYNC) {
+                    agents.add(a);
+                    continue;
+                }
+                ParallelAgent pa = createParallelAgent(a, head);
+                rewire(a, pa, subs);
                 agents.add(pa);
             }
 
+            if (propagation == Propagation.TOPOLOGICAL) {
+                Graph graph = new Graph();
+                graph.createFromTopics(topicManager.getTopics());
+                engine = PropagationEngine.compile(graph);
+                engine.attach();
+            } else if (propagation == Propagation.SHARDED) {
+                Graph graph = new Graph();
+                graph.createFromTopics(topicManager.getTopics());
+                scheduler = ShardedScheduler.partition(graph, workers, capacity, overflow, timeoutMillis,
+                        ringMailbox ? waitStrategy : null);
+                scheduler.attach();
+                Log.info("🧩 Sharded " + agents.size() + " agents over " + scheduler.getShardCount() + " workers");
+            }
+
+            if (cutoff >= 0) {
+                for (Topic t : topicManager.getTopics()) t.setChangeEpsilon(cutoff);
+            }
+            for (Map.Entry<String, Double> e : outputCutoffs.entrySet()) {
+                Topic t = topicManager.getTopic(e.getKey());
+                if (t != null) t.setChangeEpsilon(e.getValue());
+            }
+
         } catch (Exception e) {
-            System.err.println("❗ Exception while creating config: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("❗ Exception while creating config: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Wraps an agent using the global mailbox settings, overridden by any
+     * {@code key=value} options that followed the class name on its config line.
+     *
+     * @param a    the agent to wrap
+     * @param head the tokens of the agent's class-name line
+     * @return the wrapper
+     */
+    private ParallelAgent createParallelAgent(Agent a, String[] head) {
+        int cap = capacity;
+        ParallelAgent.OverflowPolicy policy = overflow;
+        long timeout = timeoutMillis;
+        boolean ring = ringMailbox;
+        ParallelAgent.WaitStrategy wait = waitStrategy;
+        for (int j = 1; j < head.length; j++) {
+            String[] kv = head[j].split("=", 2);
+            String value = kv.length == 2 ? kv[1] : "";
+            switch (kv[0].toLowerCase(Locale.ROOT)) {
+                case "capacity":
+                    cap = Integer.parseInt(value);
+                    break;
+                case "overflow":
+                    policy = ParallelAgent.OverflowPolicy.parse(value);
+                    break;
+                case "timeout":
+                    timeout = Long.parseLong(value);
+                    break;
+                case "mailbox":
+                    ring = isRing(value);
+                    break;
+                case "wait":
+                    wait = ParallelAgent.WaitStrategy.parse(value);
+                    break;
+                case "cutoff":
+                    break; // applied to the output topics in create()
+                default:
+                    Log.warn("❗ Unknown option for " + head[0] + ": " + head[j]);
+            }
+        }
+        return new ParallelAgent(a, cap, policy, timeout, ring ? wait : null, executor);
+    }
+
+    /**
+     * Parses a {@code mailbox} setting value.
+     *
+     * @param value "queue" or "ring"
+     * @return true for the ring-buffer mailbox
+     * @throws IllegalArgumentException for any other value
+     */
+    private static boolean isRing(String value) {
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "ring":
+                return true;
+            case "queue":
+                return false;
+            default:
+                throw new IllegalArgumentException("Unknown mailbox type: " + value);
+        }
+    }
+
+    /**
+     * Parses a {@code cutoff} setting value.
+     *
+     * @param value "off", "exact" or a non-negative epsilon
+     * @return the epsilon, or -1 for "off"
+     * @throws IllegalArgumentException if the value is not understood
+     */
+    private static double parseCutoff(String value) {
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "off":
+                return -1;
+            case "exact":
+                return 0;
+            default:
+                double eps = Double.parseDouble(value);
+                if (!(eps >= 0)) throw new IllegalArgumentException("Invalid cutoff: " + value);
+                return eps;
+        }
+    }
+
+    /**
+     * Applies a global {@code key=value} setting from the config file.
+     *
+     * @param key   the setting name
+     * @param value the setting value
+     */
+    private void applySetting(String key, String value) {
+        switch (key.toLowerCase(Locale.ROOT)) {
+            case "executor":
+                mode = ParallelAgent.Mode.valueOf(value.toUpperCase(Locale.ROOT));
+                break;
+            case "workers":
+                workers = Integer.parseInt(value);
+                break;
+            case "capacity":
+                capacity = Integer.parseInt(value);
+                break;
+            case "overflow":
+                overflow = ParallelAgent.OverflowPolicy.parse(value);
+                break;
+            case "timeout":
+                timeoutMillis = Long.parseLong(value);
+                break;
+            case "propagation":
+                propagation = Propagation.valueOf(value.toUpperCase(Locale.ROOT));
+                break;
+            case "mailbox":
+                ringMailbox = isRing(value);
+                break;
+            case "wait":
+                waitStrategy = ParallelAgent.WaitStrategy.parse(value);
+                break;
+            case "cutoff":
+                cutoff = parseCutoff(value);
+                break;
+            default:
+                Log.warn("❗ Unknown config setting: " + key);
         }
     }
 
     /**
-     * Closes all agents by calling {@link ParallelAgent#close()}.
+     * Moves the agent's input subscriptions to its {@link ParallelAgent} wrapper, so topics
+     * deliver into the wrapper's mailbox instead of calling the agent on the publisher's thread.
+     *
+     * @param a    the agent, which subscribed itself in its constructor
+     * @param pa   the wrapper
+     * @param subs the agent's input topic names
+     */
+    private void rewire(Agent a, ParallelAgent pa, String[] subs) {
+        for (String s : subs) {
+            Topic t = topicManager.getTopic(s);
+            if (t != null) {
+                t.unsubscribe(a);
+                t.subscribe(pa);
+            }
+        }
+    }
+
+    /**
+     * Closes all agents, detaches the propagation engine or sharded scheduler and stops the shared
+     * executor, if any.
      */
     @Override
     public void close() {
-        for (ParallelAgent pa : agents) {
-            pa.close();
+        if (engine != null) {
+            engine.detach();
+        }
+        if (scheduler != null) {
+            scheduler.close();
+        }
+        for (Agent a : agents) {
+            a.close();
+        }
+        if (executor != null) {
+            executor.shutdownNow();
         }
     }
 
@@ -4,6 +4,7 @@ import project_biu.graph.Agent;
 import project_biu.graph.Message;
 import project_biu.graph.Topic;
 import project_biu.graph.TopicManagerSingleton;
+import project_biu.util.Log;
 
 /**
  * IncAgent is a simple agent that subscribes to a single input topic,
@@ -14,6 +15,7 @@ import project_biu.graph.TopicManagerSingleton;
 public class IncAgent implements Agent {
     private final String[] subs;
     private final String[] pubs;
+    private final Topic output;
 
     /**
      * Constructs a new IncAgent that listens to one input topic and publishes to one output topic.
@@ -30,18 +32,19 @@ public class IncAgent implements Agent {
         // Ensure input topic exists and subscribe to it
         if (!tm.hasTopic(subs[0])) {
             tm.addTopic(new Topic(subs[0]));
-            System.out.println("➕ Created missing topic: " + subs[0]);
+            Log.info("➕ Created missing topic: " + subs[0]);
         }
         tm.getTopic(subs[0]).subscribe(this);
 
         // Ensure output topic exists and register as publisher
         if (!tm.hasTopic(pubs[0])) {
             tm.addTopic(new Topic(pubs[0]));
-            System.out.println("➕ Created missing output topic: " + pubs[0]);
+            Log.info("➕ Created missing output topic: " + pubs[0]);
         }
-        tm.getTopic(pubs[0]).addPublisher(this);
+        this.output = tm.getTopic(pubs[0]);
+        output.addPublisher(this);
 
-        System.out.println("🔧 IncAgent subscribed to " + subs[0] + " → " + pubs[0]);
+        Log.info("🔧 IncAgent subscribed to " + subs[0] + " → " + pubs[0]);
     }
 
     /**
@@ -54,8 +57,8 @@ public class IncAgent implements Agent {
     @Override
     public void callback(String topic, Message msg) {
         double value = msg.asDouble + 1;
-        System.out.println("📥 IncAgent incremented " + topic + " = " + msg.asDouble + " → " + value);
-        TopicManagerSingleton.get().getTopic(pubs[0]).publish(new Message(value));
+        if (Log.DEBUG) Log.debug("📥 IncAgent incremented " + topic + " = " + msg.asDouble + " → " + value);
+        output.publish(new Message(value));
     }
 
     /**
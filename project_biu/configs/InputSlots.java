@@ -0,0 +1,45 @@
+package project_biu.configs;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps an agent's input topic names to dense slot indexes, so per-input state can live in
+ * primitive arrays instead of a {@code Map<String, Double>}.
+ * <p>
+ * Repeated topic names share one slot.
+ */
+class InputSlots {
+    private final Map<String, Integer> slots = new HashMap<>();
+
+    /**
+     * Assigns a slot to each distinct topic name, in order.
+     *
+     * @param topics the input topic names
+     */
+    InputSlots(String[] topics) {
+        for (String t : topics) {
+            slots.putIfAbsent(t, slots.size());
+        }
+    }
+
+    /**
+     * Returns the number of slots (distinct input topics).
+     *
+     * @return the slot count
+     */
+    int size() {
+        return slots.size();
+    }
+
+    /**
+     * Returns the slot of the given topic.
+     *
+     * @param topic the topic name
+     * @return the slot index, or -1 if the topic is not an input
+     */
+    int slotOf(String topic) {
+        Integer s = slots.get(topic);
+        return s != null ? s : -1;
+    }
+}
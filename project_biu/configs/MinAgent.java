@@ -4,21 +4,29 @@ import project_biu.graph.Agent;
 import project_biu.graph.Message;
 import project_biu.graph.Topic;
 import project_biu.graph.TopicManagerSingleton;
+import project_biu.util.Log;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * MinAgent is an agent that subscribes to multiple input topics,
  * maintains the latest values from each, and publishes the minimum
  * value among all of them to a single output topic.
  * <p>
- * Whenever a new message is received, the minimum is recomputed and published.
+ * Whenever a new message is received, the minimum is updated and published.
+ * <p>
+ * Inputs are kept in a primitive array indexed by input slot and ordered by an indexed binary
+ * min-heap of slots, so an update costs O(log inputs) and reading the minimum costs O(1).
  */
 public class MinAgent implements Agent {
     private final String[] subs;
     private final String[] pubs;
-    private final Map<String, Double> values = new HashMap<>();
+    private final Topic output;
+    private final InputSlots slots;
+    private final double[] values;
+    private final int[] heap;   // heap of slots, ordered by value
+    private final int[] pos;    // slot -> index in heap
+    private int nanCount;
 
     /**
      * Constructs a new MinAgent with input and output topics.
@@ -34,24 +42,34 @@ public class MinAgent implements Agent {
         if (pubs.length != 1)
             throw new IllegalArgumentException("MinAgent must have exactly 1 output");
 
+        this.slots = new InputSlots(subs);
+        this.values = new double[slots.size()];
+        this.heap = new int[values.length];
+        this.pos = new int[values.length];
+        Arrays.fill(values, Double.MAX_VALUE);
+        for (int i = 0; i < heap.length; i++) {
+            heap[i] = i;
+            pos[i] = i;
+        }
+
         TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
 
         for (String s : subs) {
             if (!tm.hasTopic(s)) {
                 tm.addTopic(new Topic(s));
-                System.out.println("➕ Created missing topic: " + s);
+                Log.info("➕ Created missing topic: " + s);
             }
             tm.getTopic(s).subscribe(this);
-            values.put(s, Double.MAX_VALUE);
         }
 
         if (!tm.hasTopic(pubs[0])) {
             tm.addTopic(new Topic(pubs[0]));
-            System.out.println("➕ Created missing output topic: " + pubs[0]);
+            Log.info("➕ Created missing output topic: " + pubs[0]);
         }
-        tm.getTopic(pubs[0]).addPublisher(this);
+        this.output = tm.getTopic(pubs[0]);
+        output.addPublisher(this);
 
-        System.out.println("🔧 MinAgent subscribed to " + String.join(",", subs) + " → " + pubs[0]);
+        Log.info("🔧 MinAgent subscribed to " + String.join(",", subs) + " → " + pubs[0]);
     }
 
     /**
@@ -63,11 +81,80 @@ public class MinAgent implements Agent {
      */
     @Override
     public void callback(String topic, Message msg) {
-        values.put(topic, msg.asDouble);
-        double min = values.values().stream().mapToDouble(Double::doubleValue).min().orElse(Double.MAX_VALUE);
+        update(topic, msg.asDouble);
+        double min = min();
 
-        System.out.println("📥 MinAgent updated " + topic + " = " + msg.asDouble + ", min = " + min);
-        TopicManagerSingleton.get().getTopic(pubs[0]).publish(new Message(min));
+        if (Log.DEBUG) Log.debug("📥 MinAgent updated " + topic + " = " + msg.asDouble + ", min = " + min);
+        output.publish(new Message(min));
+    }
+
+    /**
+     * Applies a batch of updates and publishes the resulting minimum once.
+     *
+     * @param topics the topic names that sent the messages
+     * @param msgs   the messages, parallel to {@code topics}
+     * @param count  the number of valid entries
+     */
+    @Override
+    public void callbackBatch(String[] topics, Message[] msgs, int count) {
+        for (int i = 0; i < count; i++) {
+            update(topics[i], msgs[i].asDouble);
+        }
+        double min = min();
+
+        if (Log.DEBUG) Log.debug("📥 MinAgent applied " + count + " updates, min = " + min);
+        output.publish(new Message(min));
+    }
+
+    // Replaces one input value and restores the heap order around its slot
+    private void update(String topic, double v) {
+        int slot = slots.slotOf(topic);
+        if (slot < 0) return;
+        double old = values[slot];
+        values[slot] = v;
+        if (Double.isNaN(old)) nanCount--;
+        if (Double.isNaN(v)) nanCount++;
+
+        if (Double.compare(v, old) < 0) siftUp(pos[slot]);
+        else siftDown(pos[slot]);
+    }
+
+    // The minimum of all inputs; NaN if any input is NaN, as with DoubleStream.min()
+    private double min() {
+        if (nanCount > 0) return Double.NaN;
+        return heap.length == 0 ? Double.MAX_VALUE : values[heap[0]];
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (Double.compare(values[heap[i]], values[heap[parent]]) >= 0) break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        int n = heap.length;
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < n && Double.compare(values[heap[left]], values[heap[smallest]]) < 0) smallest = left;
+            if (right < n && Double.compare(values[heap[right]], values[heap[smallest]]) < 0) smallest = right;
+            if (smallest == i) return;
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int a = heap[i];
+        int b = heap[j];
+        heap[i] = b;
+        heap[j] = a;
+        pos[b] = i;
+        pos[a] = j;
     }
 
     /**
@@ -80,7 +167,10 @@ public class MinAgent implements Agent {
     /**
      * Resets all stored values to {@code Double.MAX_VALUE}.
      */
-    @Override public void reset() { values.replaceAll((k, v) -> Double.MAX_VALUE); }
+    @Override public void reset() {
+        Arrays.fill(values, Double.MAX_VALUE);
+        nanCount = 0;
+    }
 
     /**
      * Closes the agent. No resources to release in this implementation.
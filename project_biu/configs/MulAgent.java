@@ -4,9 +4,9 @@ import project_biu.graph.Agent;
 import project_biu.graph.Message;
 import project_biu.graph.Topic;
 import project_biu.graph.TopicManagerSingleton;
+import project_biu.util.Log;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * MulAgent is an agent that subscribes to multiple input topics,
@@ -15,11 +15,26 @@ import java.util.Map;
  * <p>
  * It multiplies the latest values of all subscribed topics whenever
  * a new message is received from any one of them.
+ * <p>
+ * Inputs are kept in a primitive array indexed by input slot. The agent maintains the product of
+ * the non-zero inputs plus a count of zero inputs (and of negative zeros, for the sign of a zero
+ * product), so an update is a division and a multiplication
+ * rather than a pass over all inputs, and a zero input can later be replaced without losing the
+ * product of the others. The state is recomputed exactly once every {@code inputs} updates
+ * (amortized O(1)) to discard rounding error, and whenever the running product over- or
+ * underflows or an input is NaN or infinite.
  */
 public class MulAgent implements Agent {
     private final String[] subs;
     private final String[] pubs;
-    private final Map<String, Double> values = new HashMap<>();
+    private final Topic output;
+    private final InputSlots slots;
+    private final double[] values;
+    private double nonZeroProduct = 1.0;
+    private int zeros;
+    private int negativeZeros;
+    private int nonFinite;
+    private int updatesSinceResync;
 
     /**
      * Constructs a new MulAgent with input and output topics.
@@ -35,24 +50,28 @@ public class MulAgent implements Agent {
         if (pubs.length != 1)
             throw new IllegalArgumentException("MulAgent must have exactly 1 output");
 
+        this.slots = new InputSlots(subs);
+        this.values = new double[slots.size()];
+        Arrays.fill(values, 1.0);
+
         TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
 
         for (String s : subs) {
             if (!tm.hasTopic(s)) {
                 tm.addTopic(new Topic(s));
-                System.out.println("➕ Created missing topic: " + s);
+                Log.info("➕ Created missing topic: " + s);
             }
             tm.getTopic(s).subscribe(this);
-            values.put(s, 1.0);
         }
 
         if (!tm.hasTopic(pubs[0])) {
             tm.addTopic(new Topic(pubs[0]));
-            System.out.println("➕ Created missing output topic: " + pubs[0]);
+            Log.info("➕ Created missing output topic: " + pubs[0]);
         }
-        tm.getTopic(pubs[0]).addPublisher(this);
+        this.output = tm.getTopic(pubs[0]);
+        output.addPublisher(this);
 
-        System.out.println("🔧 MulAgent subscribed to " + String.join(",", subs) + " → " + pubs[0]);
+        Log.info("🔧 MulAgent subscribed to " + String.join(",", subs) + " → " + pubs[0]);
     }
 
     /**
@@ -64,11 +83,94 @@ public class MulAgent implements Agent {
      */
     @Override
     public void callback(String topic, Message msg) {
-        values.put(topic, msg.asDouble);
-        double product = values.values().stream().reduce(1.0, (a, b) -> a * b);
+        update(topic, msg.asDouble);
+        double product = product();
 
-        System.out.println("📥 MulAgent updated " + topic + " = " + msg.asDouble + ", product = " + product);
-        TopicManagerSingleton.get().getTopic(pubs[0]).publish(new Message(product));
+        if (Log.DEBUG) Log.debug("📥 MulAgent updated " + topic + " = " + msg.asDouble + ", product = " + product);
+        output.publish(new Message(product));
+    }
+
+    /**
+     * Applies a batch of updates and publishes the resulting product once.
+     *
+     * @param topics the topic names that sent the messages
+     * @param msgs   the messages, parallel to {@code topics}
+     * @param count  the number of valid entries
+     */
+    @Override
+    public void callbackBatch(String[] topics, Message[] msgs, int count) {
+        for (int i = 0; i < count; i++) {
+            update(topics[i], msgs[i].asDouble);
+        }
+        double product = product();
+
+        if (Log.DEBUG) Log.debug("📥 MulAgent applied " + count + " updates, product = " + product);
+        output.publish(new Message(product));
+    }
+
+    // Replaces one input value and adjusts the running product and zero count
+    private void update(String topic, double v) {
+        int slot = slots.slotOf(topic);
+        if (slot < 0) return;
+        double old = values[slot];
+        values[slot] = v;
+        if (!Double.isFinite(old)) nonFinite--;
+        if (!Double.isFinite(v)) nonFinite++;
+
+        if (nonFinite > 0 || !Double.isFinite(old) || ++updatesSinceResync >= values.length) {
+            resync();
+            return;
+        }
+        if (old == 0) {
+            zeros--;
+            if (signBit(old)) negativeZeros--;
+        } else {
+            nonZeroProduct /= old;
+        }
+        if (v == 0) {
+            zeros++;
+            if (signBit(v)) negativeZeros++;
+        } else {
+            nonZeroProduct *= v;
+        }
+        if (nonZeroProduct == 0 || !Double.isFinite(nonZeroProduct)) {
+            resync(); // over- or underflow lost information
+        }
+    }
+
+    // Recomputes the product of the non-zero inputs and the zero count from scratch
+    private void resync() {
+        double p = 1.0;
+        int z = 0;
+        int nz = 0;
+        for (double x : values) {
+            if (x == 0) {
+                z++;
+                if (signBit(x)) nz++;
+            } else {
+                p *= x;
+            }
+        }
+        nonZeroProduct = p;
+        zeros = z;
+        negativeZeros = nz;
+        updatesSinceResync = 0;
+    }
+
+    // The product of all inputs
+    private double product() {
+        if (nonFinite > 0) {
+            double p = 1.0;
+            for (double x : values) p *= x; // keep IEEE semantics such as 0 * Infinity = NaN
+            return p;
+        }
+        if (zeros == 0) return nonZeroProduct;
+        // A zero product is negative when an odd number of factors, zeros included, are negative
+        return signBit(nonZeroProduct) ^ (negativeZeros & 1) != 0 ? -0.0 : 0.0;
+    }
+
+    private static boolean signBit(double x) {
+        return Double.doubleToRawLongBits(x) < 0;
     }
 
     /**
@@ -81,7 +183,14 @@ public class MulAgent implements Agent {
     /**
      * Resets all stored values to 1.0.
      */
-    @Override public void reset() { values.replaceAll((k, v) -> 1.0); }
+    @Override public void reset() {
+        Arrays.fill(values, 1.0);
+        nonZeroProduct = 1.0;
+        zeros = 0;
+        negativeZeros = 0;
+        nonFinite = 0;
+        updatesSinceResync = 0;
+    }
 
     /**
      * Closes the agent. No resources to release in this implementation.
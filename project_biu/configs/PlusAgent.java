@@ -4,22 +4,35 @@ import project_biu.graph.Agent;
 import project_biu.graph.Message;
 import project_biu.graph.Topic;
 import project_biu.graph.TopicManagerSingleton;
+import project_biu.util.Log;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * A configurable agent that listens to multiple input topics,
  * sums their values, and publishes the result to a single output topic.
  * <p>
  * The agent maintains the last value received from each subscribed topic,
- * and every time a new value is received, it recomputes the total sum and
+ * and every time a new value is received, it updates the total sum and
  * publishes it to the output.
+ * <p>
+ * Inputs are kept in a primitive array indexed by input slot, and the sum is maintained
+ * incrementally with Kahan compensation, so an update costs O(1) regardless of the number of
+ * inputs. The sum is recomputed once every {@code inputs} updates (amortized O(1)), with the same
+ * compensated summation as {@link java.util.stream.DoubleStream#sum()}, and on every update while
+ * an input is NaN or infinite or the sum overflows.
  */
 public class PlusAgent implements Agent {
     private final String[] subs;
     private final String[] pubs;
-    private final Map<String, Double> values = new HashMap<>();
+    private final Topic output;
+    private final InputSlots slots;
+    private final double[] values;
+    private double sum;
+    private double compensation;
+    private double simpleSum;
+    private int nonFinite;
+    private int updatesSinceResync;
 
     /**
      * Constructs a PlusAgent with the given input and output topic names.
@@ -35,28 +48,31 @@ public class PlusAgent implements Agent {
         if (pubs.length != 1)
             throw new IllegalArgumentException("PlusAgent must have exactly 1 output");
 
+        this.slots = new InputSlots(subs);
+        this.values = new double[slots.size()];
+
         TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
 
         for (String s : subs) {
             if (!tm.hasTopic(s)) {
                 tm.addTopic(new Topic(s));
-                System.out.println("➕ Created missing topic: " + s);
+                Log.info("➕ Created missing topic: " + s);
             }
             tm.getTopic(s).subscribe(this);
-            values.put(s, 0.0);
         }
 
         if (!tm.hasTopic(pubs[0])) {
             tm.addTopic(new Topic(pubs[0]));
-            System.out.println("➕ Created missing output topic: " + pubs[0]);
+            Log.info("➕ Created missing output topic: " + pubs[0]);
         }
-        tm.getTopic(pubs[0]).addPublisher(this);
+        this.output = tm.getTopic(pubs[0]);
+        output.addPublisher(this);
 
-        System.out.println("🔧 PlusAgent subscribed to " + String.join(",", subs) + " → " + pubs[0]);
+        Log.info("🔧 PlusAgent subscribed to " + String.join(",", subs) + " → " + pubs[0]);
     }
 
     /**
-     * Receives an update from a subscribed topic and recomputes the total sum.
+     * Receives an update from a subscribed topic and updates the total sum.
      * Publishes the new sum to the output topic.
      *
      * @param topic the topic name that published the message
@@ -64,11 +80,74 @@ public class PlusAgent implements Agent {
      */
     @Override
     public void callback(String topic, Message msg) {
-        values.put(topic, msg.asDouble);
-        double sum = values.values().stream().mapToDouble(Double::doubleValue).sum();
+        update(topic, msg.asDouble);
+        double sum = sum();
+
+        if (Log.DEBUG) Log.debug("📥 PlusAgent updated " + topic + " = " + msg.asDouble + ", total sum = " + sum);
+        output.publish(new Message(sum));
+    }
+
+    /**
+     * Applies a batch of updates and publishes the resulting sum once.
+     *
+     * @param topics the topic names that published the messages
+     * @param msgs   the messages, parallel to {@code topics}
+     * @param count  the number of valid entries
+     */
+    @Override
+    public void callbackBatch(String[] topics, Message[] msgs, int count) {
+        for (int i = 0; i < count; i++) {
+            update(topics[i], msgs[i].asDouble);
+        }
+        double sum = sum();
+
+        if (Log.DEBUG) Log.debug("📥 PlusAgent applied " + count + " updates, total sum = " + sum);
+        output.publish(new Message(sum));
+    }
+
+    // Replaces one input value and adjusts the running sum
+    private void update(String topic, double v) {
+        int slot = slots.slotOf(topic);
+        if (slot < 0) return;
+        double old = values[slot];
+        values[slot] = v;
+        if (!Double.isFinite(old)) nonFinite--;
+        if (!Double.isFinite(v)) nonFinite++;
+
+        if (nonFinite > 0 || !Double.isFinite(old) || ++updatesSinceResync >= values.length) {
+            resync();
+        } else {
+            add(-old);
+            add(v);
+            if (!Double.isFinite(sum)) resync(); // overflow: let the simple sum decide, as below
+        }
+    }
 
-        System.out.println("📥 PlusAgent updated " + topic + " = " + msg.asDouble + ", total sum = " + sum);
-        TopicManagerSingleton.get().getTopic(pubs[0]).publish(new Message(sum));
+    // One step of Kahan summation, as in DoubleStream.sum()
+    private void add(double x) {
+        double y = x - compensation;
+        double t = sum + y;
+        compensation = (t - sum) - y;
+        sum = t;
+    }
+
+    // Recomputes the sum from scratch
+    private void resync() {
+        sum = 0;
+        compensation = 0;
+        double s = 0;
+        for (double x : values) {
+            add(x);
+            s += x;
+        }
+        simpleSum = s;
+        updatesSinceResync = 0;
+    }
+
+    // The compensated sum; the simple sum where compensation fails on infinities, like DoubleStream.sum()
+    private double sum() {
+        double t = sum - compensation;
+        return Double.isNaN(t) && Double.isInfinite(simpleSum) ? simpleSum : t;
     }
 
     /**
@@ -81,7 +160,14 @@ public class PlusAgent implements Agent {
     /**
      * Resets all stored input values to 0.0.
      */
-    @Override public void reset() { values.replaceAll((k, v) -> 0.0); }
+    @Override public void reset() {
+        Arrays.fill(values, 0.0);
+        sum = 0;
+        compensation = 0;
+        simpleSum = 0;
+        nonFinite = 0;
+        updatesSinceResync = 0;
+    }
 
     /**
      * Closes the agent. No resources to clean up in this implementation.
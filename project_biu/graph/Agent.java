@@ -32,6 +32,31 @@ public interface Agent {
      */
     void callback(String topic, Message msg);
 
+    /**
+     * Callback method invoked with several pending messages at once, in arrival order.
+     * <p>
+     * Asynchronous wrappers such as {@link ParallelAgent} drain their mailbox in batches and deliver
+     * them through this method. The default implementation calls {@link #callback(String, Message)}
+     * for each entry; aggregating agents can override it to apply all updates and publish once.
+     * Messages published by an override inherit the trace of the oldest message in the batch.
+     * <p>
+     * The arrays are owned and reused by the caller and must not be retained after the call returns.
+     *
+     * @param topics the topic names; entries {@code 0 .. count-1} are valid
+     * @param msgs   the messages, parallel to {@code topics}
+     * @param count  the number of valid entries (at least 1)
+     */
+    default void callbackBatch(String[] topics, Message[] msgs, int count) {
+        for (int i = 0; i < count; i++) {
+            Message prev = TraceContext.enter(msgs[i]); // derived messages follow their own input's trace
+            try {
+                callback(topics[i], msgs[i]);
+            } finally {
+                TraceContext.exit(prev);
+            }
+        }
+    }
+
     /**
      * Performs any necessary cleanup when the agent is no longer needed.
      */
@@ -18,6 +18,7 @@ public class BinOpAgent implements Agent {
     private final String name;
     private final String topic1, topic2, outputTopic;
     private final BinaryOperator<Double> op;
+    private final Topic output;
     private Double v1 = null, v2 = null;
 
     /**
@@ -37,9 +38,10 @@ public class BinOpAgent implements Agent {
         this.op = op;
 
         TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
-        tm.getTopic(topic1).subscribe(this);
-        tm.getTopic(topic2).subscribe(this);
-        tm.getTopic(outputTopic).addPublisher(this);
+        tm.getOrCreateTopic(topic1).subscribe(this);
+        tm.getOrCreateTopic(topic2).subscribe(this);
+        this.output = tm.getOrCreateTopic(outputTopic);
+        output.addPublisher(this);
     }
 
     /**
@@ -61,7 +63,7 @@ public class BinOpAgent implements Agent {
 
         if (v1 != null && v2 != null) {
             double result = op.apply(v1, v2);
-            TopicManagerSingleton.get().getTopic(outputTopic).publish(new Message(result));
+            output.publish(new Message(result));
             v1 = null;
             v2 = null;
         }
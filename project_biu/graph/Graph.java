@@ -1,7 +1,7 @@
 package project_biu.graph;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -10,21 +10,41 @@ import java.util.Map;
  * <p>
  * This graph supports cycle detection, dynamic construction from the topic system,
  * and provides access to all participating nodes.
+ * <p>
+ * Besides being built in one go by {@link #createFromTopics(Iterable)}, the graph can be kept up
+ * to date incrementally with {@link #addTopic(Topic)}, {@link #addSubscription(Topic, Agent)} and
+ * friends; {@link TopicManagerSingleton.TopicManager#getGraph()} maintains one that way. Every
+ * structural change bumps the {@link #getTopologyVersion() topology version}.
  */
 public class Graph extends ArrayList<Node> {
 
+    private final Map<Topic, Node> topicNodes = new IdentityHashMap<>();
+    private final Map<Agent, Node> agentNodes = new IdentityHashMap<>();
+
+    /** Number of subscribed topics per agent node; an agent node is dropped once it has no edges. */
+    private final Map<Node, Integer> agentInDegree = new IdentityHashMap<>();
+
+    private long topologyVersion;
+
     /**
      * Checks whether the graph contains any cycles.
+     * <p>
+     * Runs a single {@link StronglyConnectedComponents} pass, linear in the number of nodes and edges.
      *
      * @return true if a cycle exists in the graph; false otherwise
      */
     public boolean hasCycles() {
-        for (Node n : this) {
-            if (n.hasCycles()) {
-                return true;
-            }
-        }
-        return false;
+        return StronglyConnectedComponents.of(this).hasCycles();
+    }
+
+    /**
+     * Returns the cycles of the graph: the nodes of every strongly connected component that
+     * contains a cycle. Empty if the graph is acyclic.
+     *
+     * @return the cyclic components
+     */
+    public List<List<Node>> findCycles() {
+        return StronglyConnectedComponents.of(this).getCycles();
     }
 
     /**
@@ -50,7 +70,8 @@ public class Graph extends ArrayList<Node> {
      * Constructs a directed graph based on the given topics and their agent connections.
      * <ul>
      *     <li>Each topic becomes a node prefixed with "T".</li>
-     *     <li>Each agent becomes a node prefixed with "A".</li>
+     *     <li>Each agent becomes a node prefixed with "A". Agents are matched by identity, so two agents
+     *     with the same name get separate nodes; a {@link ParallelAgent} shares its wrapped agent's node.</li>
      *     <li>Edges are created:
      *         <ul>
      *             <li>From topic → agent (subscriptions)</li>
@@ -58,34 +79,170 @@ public class Graph extends ArrayList<Node> {
      *         </ul>
      *     </li>
      * </ul>
+     * Every node is linked to the {@link Topic} or {@link Agent} it represents. Topics are matched by
+     * identity, so building the graph does not concatenate or hash name strings.
      *
      * @param topics the iterable list of topics to build the graph from
      */
     public void createFromTopics(Iterable<Topic> topics) {
         this.clear();
-        Map<String, Node> nodes = new HashMap<>();
-
         for (Topic t : topics) {
-            String topicNodeName = "T" + t.name;
-            nodes.putIfAbsent(topicNodeName, new Node(topicNodeName));
+            addTopic(t);
         }
-
         for (Topic t : topics) {
-            String topicNodeName = "T" + t.name;
-
-            for (Agent a : t.subs) {
-                String agentNodeName = "A" + a.getName();
-                nodes.putIfAbsent(agentNodeName, new Node(agentNodeName));
-                nodes.get(topicNodeName).addEdge(nodes.get(agentNodeName));
+            for (Agent a : t.getSubscribers()) {
+                addSubscription(t, a);
             }
-
-            for (Agent a : t.pubs) {
-                String agentNodeName = "A" + a.getName();
-                nodes.putIfAbsent(agentNodeName, new Node(agentNodeName));
-                nodes.get(agentNodeName).addEdge(nodes.get(topicNodeName));
+            for (Agent a : t.getPublishers()) {
+                addPublication(a, t);
             }
         }
+    }
 
-        this.addAll(nodes.values());
+    /**
+     * Removes all nodes and bumps the topology version.
+     */
+    @Override
+    public void clear() {
+        super.clear();
+        topicNodes.clear();
+        agentNodes.clear();
+        agentInDegree.clear();
+        topologyVersion++;
+    }
+
+    /**
+     * Returns a counter that increases on every structural change made through this class
+     * (nodes or edges added or removed). Topic values do not count: nodes reference their
+     * {@link Topic}, so values are always read live.
+     *
+     * @return the topology version
+     */
+    public long getTopologyVersion() {
+        return topologyVersion;
+    }
+
+    /**
+     * Returns the node of a topic, adding it if the topic is not in the graph yet.
+     *
+     * @param t the topic
+     * @return the topic's node
+     */
+    public Node addTopic(Topic t) {
+        Node n = topicNodes.get(t);
+        if (n == null) {
+            n = new Node("T" + t.name);
+            n.setIsTopic(true);
+            n.setTopic(t);
+            topicNodes.put(t, n);
+            add(n);
+            topologyVersion++;
+        }
+        return n;
+    }
+
+    /**
+     * Adds the edge topic → agent for a subscription. Does nothing if the edge exists.
+     *
+     * @param t the topic
+     * @param a the subscribed agent; a {@link ParallelAgent} maps to the agent it wraps
+     */
+    public void addSubscription(Topic t, Agent a) {
+        Node to = agentNode(a);
+        if (link(addTopic(t), to)) {
+            agentInDegree.merge(to, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Removes the edge topic → agent, unless another subscriber of {@code t} still maps to the
+     * same agent node (e.g. the agent and its {@link ParallelAgent} wrapper). An agent node left
+     * without edges is removed.
+     *
+     * @param t the topic, whose current subscribers must no longer include {@code a}
+     * @param a the unsubscribed agent
+     */
+    public void removeSubscription(Topic t, Agent a) {
+        Node from = topicNodes.get(t);
+        Node to = agentNodes.get(key(a));
+        if (from == null || to == null || mapsTo(t.getSubscribers(), key(a))) return;
+        if (unlink(from, to)) {
+            agentInDegree.merge(to, -1, Integer::sum);
+            prune(to);
+        }
+    }
+
+    /**
+     * Adds the edge agent → topic for a publisher registration. Does nothing if the edge exists.
+     *
+     * @param a the publishing agent; a {@link ParallelAgent} maps to the agent it wraps
+     * @param t the topic
+     */
+    public void addPublication(Agent a, Topic t) {
+        link(agentNode(a), addTopic(t));
+    }
+
+    /**
+     * Removes the edge agent → topic, unless another publisher of {@code t} still maps to the same
+     * agent node. An agent node left without edges is removed.
+     *
+     * @param a the agent no longer publishing
+     * @param t the topic, whose current publishers must no longer include {@code a}
+     */
+    public void removePublication(Agent a, Topic t) {
+        Node from = agentNodes.get(key(a));
+        Node to = topicNodes.get(t);
+        if (from == null || to == null || mapsTo(t.getPublishers(), key(a))) return;
+        if (unlink(from, to)) {
+            prune(from);
+        }
+    }
+
+    // Returns the node for an agent, creating it on first use; wrappers map to the agent they wrap
+    private Node agentNode(Agent a) {
+        Agent key = key(a);
+        Node n = agentNodes.get(key);
+        if (n == null) {
+            n = new Node("A" + key.getName());
+            n.setAgent(key);
+            n.setAgentType(key.getClass().getSimpleName());
+            agentNodes.put(key, n);
+            add(n);
+            topologyVersion++;
+        }
+        return n;
+    }
+
+    private boolean link(Node from, Node to) {
+        if (from.getEdges().contains(to)) return false;
+        from.addEdge(to);
+        topologyVersion++;
+        return true;
+    }
+
+    private boolean unlink(Node from, Node to) {
+        if (!from.getEdges().remove(to)) return false;
+        topologyVersion++;
+        return true;
+    }
+
+    // Drops an agent node that no longer has edges in either direction
+    private void prune(Node n) {
+        if (!n.getEdges().isEmpty() || agentInDegree.getOrDefault(n, 0) > 0) return;
+        agentNodes.remove(n.getAgent());
+        agentInDegree.remove(n);
+        remove(n);
+        topologyVersion++;
+    }
+
+    private static Agent key(Agent a) {
+        return (a instanceof ParallelAgent) ? ((ParallelAgent) a).getAgent() : a;
+    }
+
+    private static boolean mapsTo(List<Agent> agents, Agent key) {
+        for (Agent a : agents) {
+            if (key(a) == key) return true;
+        }
+        return false;
     }
 }
@@ -0,0 +1,120 @@
+package project_biu.graph;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, int-indexed snapshot of a set of {@link Node}s and their edges.
+ * <p>
+ * Nodes are numbered {@code 0 .. size()-1} in list order, and the outgoing edges of all nodes
+ * are stored back to back in one {@code int[]} (compressed sparse row layout): the targets of
+ * node {@code v} are {@code target(edgeStart(v)) .. target(edgeEnd(v) - 1)}. Graph algorithms
+ * can therefore run on primitive arrays without hashing nodes or allocating per edge, which keeps
+ * analysis of graphs with hundreds of thousands of nodes fast and compact.
+ * <p>
+ * Edges to nodes outside the indexed list are ignored.
+ */
+public class GraphIndex {
+    private final Node[] nodes;
+    private final int[] offsets;
+    private final int[] targets;
+
+    private GraphIndex(Node[] nodes, int[] offsets, int[] targets) {
+        this.nodes = nodes;
+        this.offsets = offsets;
+        this.targets = targets;
+    }
+
+    /**
+     * Builds the index of the given nodes.
+     *
+     * @param list the nodes, e.g. a {@link Graph}
+     * @return the index
+     */
+    public static GraphIndex of(List<Node> list) {
+        Node[] nodes = list.toArray(new Node[0]);
+        Map<Node, Integer> ids = new IdentityHashMap<>(nodes.length * 2);
+        for (int i = 0; i < nodes.length; i++) {
+            ids.put(nodes[i], i);
+        }
+
+        int[] offsets = new int[nodes.length + 1];
+        int edges = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            offsets[i] = edges;
+            for (Node m : nodes[i].getEdges()) {
+                if (ids.containsKey(m)) edges++;
+            }
+        }
+        offsets[nodes.length] = edges;
+
+        int[] targets = new int[edges];
+        int k = 0;
+        for (Node n : nodes) {
+            for (Node m : n.getEdges()) {
+                Integer j = ids.get(m);
+                if (j != null) targets[k++] = j;
+            }
+        }
+        return new GraphIndex(nodes, offsets, targets);
+    }
+
+    /**
+     * Returns the number of nodes.
+     *
+     * @return the node count
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * Returns the number of indexed edges.
+     *
+     * @return the edge count
+     */
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    /**
+     * Returns the node with the given index.
+     *
+     * @param v the node index
+     * @return the node
+     */
+    public Node node(int v) {
+        return nodes[v];
+    }
+
+    /**
+     * Returns the position of node {@code v}'s first outgoing edge.
+     *
+     * @param v the node index
+     * @return the first edge position
+     */
+    public int edgeStart(int v) {
+        return offsets[v];
+    }
+
+    /**
+     * Returns the position just past node {@code v}'s last outgoing edge.
+     *
+     * @param v the node index
+     * @return the end edge position (exclusive)
+     */
+    public int edgeEnd(int v) {
+        return offsets[v + 1];
+    }
+
+    /**
+     * Returns the target node index of the edge at position {@code e}.
+     *
+     * @param e the edge position
+     * @return the target node index
+     */
+    public int target(int e) {
+        return targets[e];
+    }
+}
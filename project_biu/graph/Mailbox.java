@@ -0,0 +1,73 @@
+package project_biu.graph;
+
+/**
+ * The buffer of pending messages between the publishers of a {@link ParallelAgent}'s input topics
+ * and the wrapped agent.
+ * <p>
+ * Any number of threads may enqueue concurrently, but only one consumer at a time may
+ * {@link #drain drain} or {@link #await() wait}.
+ */
+interface Mailbox {
+
+    /**
+     * Enqueues a message without waiting.
+     *
+     * @param topic the topic the message came from
+     * @param msg   the message, or {@code null} for a conflation marker
+     * @return true if the message was enqueued, false if the mailbox is full
+     */
+    boolean offer(String topic, Message msg);
+
+    /**
+     * Enqueues a message, waiting for space if the mailbox is full.
+     *
+     * @param topic        the topic the message came from
+     * @param msg          the message, or {@code null} for a conflation marker
+     * @param timeoutNanos the maximum time to wait; 0 or less waits forever
+     * @return true if the message was enqueued, false if the timeout elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean offer(String topic, Message msg, long timeoutNanos) throws InterruptedException;
+
+    /**
+     * Removes the oldest entry to make room for a new one.
+     *
+     * @return true if an entry was removed, false if the mailbox was empty
+     * @throws UnsupportedOperationException if producers cannot remove entries from this mailbox
+     */
+    boolean evictOldest();
+
+    /**
+     * Moves up to {@code max} entries, oldest first, into the given arrays without waiting.
+     * Consumer only.
+     *
+     * @param topics receives the topic names
+     * @param msgs   receives the messages, parallel to {@code topics}
+     * @param max    the maximum number of entries to move
+     * @return the number of entries moved (0 if the mailbox is empty)
+     */
+    int drain(String[] topics, Message[] msgs, int max);
+
+    /**
+     * Waits until at least one entry is available. Consumer only.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void await() throws InterruptedException;
+
+    /**
+     * Returns the number of entries currently waiting (may be approximate under concurrent access).
+     *
+     * @return the mailbox depth
+     */
+    int size();
+
+    /**
+     * Returns whether no entries are waiting.
+     *
+     * @return true if the mailbox is empty
+     */
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+}
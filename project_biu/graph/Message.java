@@ -1,61 +1,192 @@
 package project_biu.graph;
 
 import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Represents a message that can be published to a topic and delivered to agents.
  * <p>
- * Stores multiple representations of the message: raw bytes, string, parsed number, and timestamp.
+ * A message keeps the representation it was created from (a number, a string or raw bytes)
+ * and derives the other views lazily on first access. Numeric messages passed between agents
+ * therefore cost a single allocation: no string formatting, no re-parsing and no {@link Date}.
+ * <p>
+ * {@link #asDouble} is always available eagerly. Text that is obviously not a number is
+ * rejected by a cheap character scan instead of a thrown {@link NumberFormatException}.
+ * <p>
+ * Every message belongs to a trace. A message created outside of any agent callback (for example
+ * by an HTTP servlet) starts a new trace; a message created by an agent while it handles another
+ * message inherits that message's {@link #traceId} and {@link #originNanos}, so the end-to-end
+ * latency of a value can be measured at every topic it reaches.
  */
 public class Message {
-    /** The raw byte content of the message. */
-    public final byte[] data;
-
-    /** The message as a string. */
-    public final String asText;
+    /** Reference points used to turn the monotonic {@link #timestamp} back into wall-clock time. */
+    private static final long EPOCH_MILLIS = System.currentTimeMillis();
+    private static final long EPOCH_NANOS = System.nanoTime();
 
     /** The message parsed as a double (or NaN if not a valid number). */
     public final double asDouble;
 
-    /** The timestamp when the message was created. */
-    public final Date date;
+    /** Monotonic creation time of the message, as returned by {@link System#nanoTime()}. */
+    public final long timestamp;
+
+    /** Id of the trace this message belongs to, shared by every message derived from the same origin. */
+    public final long traceId;
+
+    /** {@link System#nanoTime()} at which the trace entered the graph (equal to {@link #timestamp} for an origin). */
+    public final long originNanos;
+
+    /** The message as a string; derived lazily for numeric and byte messages. */
+    private String text;
+
+    /** The raw byte content of the message; derived lazily for numeric and string messages. */
+    private volatile byte[] data;
 
     /**
      * Constructs a Message from a string.
-     * Initializes {@code data}, {@code asText}, {@code asDouble}, and {@code date}.
+     * The numeric value is parsed once; bytes are produced only if requested.
      *
      * @param s the message content as a string
      */
     public Message(String s) {
-        this.date = new Date();
-        this.asText = s;
-        this.data = s.getBytes();
-        double val;
-        try {
-            val = Double.parseDouble(s);
-        } catch (NumberFormatException e) {
-            val = Double.NaN;
-        }
-        this.asDouble = val;
+        this.timestamp = System.nanoTime();
+        Message parent = TraceContext.current();
+        this.traceId = (parent != null) ? parent.traceId : newTraceId();
+        this.originNanos = (parent != null) ? parent.originNanos : timestamp;
+        this.text = s;
+        this.asDouble = parse(s);
     }
 
     /**
      * Constructs a Message from a byte array.
-     * Converts the byte array to string and delegates to the string constructor.
+     * The text is decoded eagerly only when the bytes may hold a number.
      *
      * @param arr the message content as bytes
      */
     public Message(byte[] arr) {
-        this(new String(arr));
+        this.timestamp = System.nanoTime();
+        Message parent = TraceContext.current();
+        this.traceId = (parent != null) ? parent.traceId : newTraceId();
+        this.originNanos = (parent != null) ? parent.originNanos : timestamp;
+        this.data = arr;
+        if (mayBeNumeric(arr)) {
+            this.text = new String(arr);
+            this.asDouble = parse(text);
+        } else {
+            this.asDouble = Double.NaN;
+        }
     }
 
     /**
      * Constructs a Message from a double.
-     * Converts the double to string and delegates to the string constructor.
+     * No string or byte representation is built until one is requested.
      *
      * @param d the numeric message content
      */
     public Message(double d) {
-        this(Double.toString(d));
+        this.timestamp = System.nanoTime();
+        Message parent = TraceContext.current();
+        this.traceId = (parent != null) ? parent.traceId : newTraceId();
+        this.originNanos = (parent != null) ? parent.originNanos : timestamp;
+        this.asDouble = d;
+    }
+
+    /**
+     * Returns the message as a string, formatting or decoding it on first use.
+     *
+     * @return the textual content of the message
+     */
+    public String asText() {
+        String s = text;
+        if (s == null) {
+            byte[] b = data;
+            s = (b != null) ? new String(b) : Double.toString(asDouble);
+            text = s; // benign race: every thread derives an equal immutable string
+        }
+        return s;
+    }
+
+    /**
+     * Returns the raw byte content of the message, encoding it on first use.
+     *
+     * @return the message bytes
+     */
+    public byte[] data() {
+        byte[] b = data;
+        if (b == null) {
+            b = asText().getBytes();
+            data = b;
+        }
+        return b;
+    }
+
+    /**
+     * Returns the wall-clock time at which the message was created.
+     * Derived from {@link #timestamp}, so a new {@link Date} is allocated per call.
+     *
+     * @return the creation date
+     */
+    public Date getDate() {
+        return new Date(EPOCH_MILLIS + (timestamp - EPOCH_NANOS) / 1_000_000);
+    }
+
+    /**
+     * Returns how long ago this message's trace entered the graph.
+     *
+     * @return the end-to-end latency so far, in nanoseconds
+     */
+    public long getAgeNanos() {
+        return System.nanoTime() - originNanos;
+    }
+
+    private static long newTraceId() {
+        return TraceContext.ENABLED ? ThreadLocalRandom.current().nextLong() : 0;
+    }
+
+    // Parses a number, returning NaN for text that cannot be one without throwing
+    private static double parse(String s) {
+        if (!mayBeNumeric(s)) return Double.NaN;
+        try {
+            return Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /*
+     * Cheap filter run before Double.parseDouble. It accepts every character that
+     * parseDouble can accept (digits, signs, exponents, hex digits, type suffixes and the
+     * letters of "NaN"/"Infinity"), so it never rejects a valid number, but it rules out
+     * ordinary words and sentences without paying for an exception.
+     */
+    private static boolean mayBeNumeric(CharSequence s) {
+        int n = s.length();
+        if (n == 0) return false;
+        for (int i = 0; i < n; i++) {
+            if (!isNumericChar(s.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    private static boolean mayBeNumeric(byte[] b) {
+        if (b.length == 0) return false;
+        for (byte c : b) {
+            if (c < 0 || !isNumericChar((char) c)) return false;
+        }
+        return true;
+    }
+
+    // Every char <= ' ' counts as whitespace, as parseDouble trims them all
+    private static boolean isNumericChar(char c) {
+        if (c >= '0' && c <= '9' || c <= ' ') return true;
+        switch (c) {
+            case '+': case '-': case '.':
+            case 'e': case 'E': case 'x': case 'X': case 'p': case 'P':
+            case 'a': case 'A': case 'b': case 'B': case 'c': case 'C':
+            case 'd': case 'D': case 'f': case 'F':
+            case 'N': case 'I': case 'n': case 'i': case 't': case 'y':
+                return true;
+            default:
+                return false;
+        }
     }
 }
@@ -15,6 +15,8 @@ public class Node {
 
     private boolean isTopic;         // Distinguish topic vs agent
     private String agentType;        // Store agent type (e.g. PlusAgent, MulAgent)
+    private Topic topic;             // The topic this node stands for, if built from live topics
+    private Agent agent;             // The agent this node stands for, if built from live topics
 
     /**
      * Constructs a new Node with the given name.
@@ -36,26 +38,27 @@ public class Node {
     }
 
     /**
-     * Checks if this node is part of a cycle in the graph.
+     * Checks if a cycle is reachable from this node.
+     * <p>
+     * Collects the reachable nodes with an explicit stack and runs one
+     * {@link StronglyConnectedComponents} pass over them, so deep chains cannot overflow the call stack.
      *
      * @return true if a cycle is detected
      */
     public boolean hasCycles() {
-        return hasCycles(new HashSet<>(), new HashSet<>());
-    }
-
-    // Internal DFS helper for cycle detection
-    private boolean hasCycles(Set<Node> visited, Set<Node> stack) {
-        if (stack.contains(this)) return true;
-        if (visited.contains(this)) return false;
-
-        visited.add(this);
-        stack.add(this);
-        for (Node neighbor : edges) {
-            if (neighbor.hasCycles(visited, stack)) return true;
+        Set<Node> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Node> reachable = new ArrayList<>();
+        Deque<Node> pending = new ArrayDeque<>();
+        pending.push(this);
+        seen.add(this);
+        while (!pending.isEmpty()) {
+            Node n = pending.pop();
+            reachable.add(n);
+            for (Node m : n.edges) {
+                if (seen.add(m)) pending.push(m);
+            }
         }
-        stack.remove(this);
-        return false;
+        return StronglyConnectedComponents.of(reachable).hasCycles();
     }
 
     /** @return the name of the node */
@@ -113,6 +116,26 @@ public class Node {
         this.agentType = agentType;
     }
 
+    /** @return the topic represented by this node, or null if unknown or not a topic */
+    public Topic getTopic() {
+        return topic;
+    }
+
+    /** Sets the topic represented by this node. */
+    public void setTopic(Topic topic) {
+        this.topic = topic;
+    }
+
+    /** @return the agent represented by this node, or null if unknown or not an agent */
+    public Agent getAgent() {
+        return agent;
+    }
+
+    /** Sets the agent represented by this node. */
+    public void setAgent(Agent agent) {
+        this.agent = agent;
+    }
+
     /**
      * Strips "T_" or "A_" prefixes from the node name for cleaner display.
      *
@@ -130,7 +153,7 @@ public class Node {
      */
     public String getValueText() {
         if (!isTopic) return "";
-        if (msg == null || msg.asText == null) return "0";
-        return msg.asText;
+        if (msg == null) return "0";
+        return msg.asText();
     }
 }
@@ -1,56 +1,255 @@
 package project_biu.graph;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import project_biu.metrics.LatencyHistogram;
+import project_biu.util.Log;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A decorator for an {@link Agent} that enables asynchronous execution.
  * <p>
- * This class wraps a regular agent and processes its callbacks on a separate thread using a blocking queue.
- * Useful for parallelizing graph computations and avoiding blocking in message propagation.
+ * This class wraps a regular agent and processes its callbacks asynchronously using a mailbox: by default
+ * a blocking queue, or optionally a pre-allocated lock-free ring buffer (see {@link WaitStrategy}). Useful for parallelizing graph computations and avoiding blocking in message propagation.
+ * <p>
+ * Two execution styles are supported:
+ * <ul>
+ *     <li>{@link Mode#THREAD}: the agent owns a dedicated platform thread that waits on its mailbox.</li>
+ *     <li>{@link Mode#POOL} / {@link Mode#VIRTUAL}: the agent is scheduled on a shared {@link Executor}
+ *     only while its mailbox is non-empty, so idle agents cost no thread at all.</li>
+ * </ul>
+ * In every mode the wrapped agent sees its callbacks one at a time, in mailbox order. The mailbox is
+ * drained in batches of up to {@value #MAX_BATCH} messages with a single queue operation, and a batch of
+ * more than one message is delivered through {@link Agent#callbackBatch(String[], Message[], int)}.
+ * <p>
+ * What happens when the mailbox is full is decided by an {@link OverflowPolicy}. Messages that
+ * are discarded or merged are counted ({@link #getDroppedCount()}, {@link #getConflatedCount()}).
+ * <p>
+ * Each delivery records how old the message was when the agent got it ({@link #getQueueLatency()},
+ * mostly mailbox wait) and how long the agent's callback ran ({@link #getServiceTime()}). Under
+ * {@link OverflowPolicy#BLOCK}, the time publishers spend waiting for space is recorded in
+ * {@link #getEnqueueWait()}.
  */
 public class ParallelAgent implements Agent {
 
+    /**
+     * How the wrapped agent's callbacks are executed.
+     */
+    public enum Mode {
+        /** One dedicated platform thread per agent. */
+        THREAD,
+        /** A shared, fixed-size pool of platform worker threads. */
+        POOL,
+        /** One virtual thread per drain task (falls back to {@link #POOL} before Java 21). */
+        VIRTUAL
+    }
+
+    /**
+     * What {@link #callback(String, Message)} does when the mailbox is full.
+     */
+    public enum OverflowPolicy {
+        /** Wait for space, up to the configured timeout (forever if the timeout is 0), then drop the message. */
+        BLOCK,
+        /** Discard the oldest queued message to make room for the new one. */
+        DROP_OLDEST,
+        /** Discard the new message. */
+        DROP_NEWEST,
+        /**
+         * Keep only the latest pending value per input topic. A newer message for a topic that
+         * is still queued replaces the queued one, so the mailbox never holds more entries than
+         * the agent has input topics and the publisher never waits.
+         */
+        CONFLATE;
+
+        /**
+         * Parses a policy name as written in config files (e.g. {@code drop-oldest}).
+         *
+         * @param s the policy name, case-insensitive, with '-' or '_' as separator
+         * @return the matching policy
+         * @throws IllegalArgumentException if no policy has that name
+         */
+        public static OverflowPolicy parse(String s) {
+            return valueOf(s.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * How a ring-buffer mailbox waits: the consumer for new messages, producers for free space.
+     * Selecting a wait strategy selects the ring-buffer mailbox, which reuses its slots instead of
+     * allocating an entry per message.
+     */
+    public enum WaitStrategy {
+        /** Park the consumer until a producer wakes it; lowest CPU use, adds a wake-up to each hand-off. */
+        BLOCK,
+        /** Poll with short timed parks; no producer-side signalling. */
+        PARK,
+        /** Poll and {@link Thread#yield()} between checks. */
+        YIELD,
+        /** Busy-spin; lowest latency, occupies a core per waiting thread. */
+        SPIN;
+
+        /**
+         * Parses a strategy name as written in config files (e.g. {@code spin}).
+         *
+         * @param s the strategy name, case-insensitive; {@code busy-spin} is accepted for {@link #SPIN}
+         * @return the matching strategy
+         * @throws IllegalArgumentException if no strategy has that name
+         */
+        public static WaitStrategy parse(String s) {
+            String name = s.trim().toUpperCase(Locale.ROOT);
+            return valueOf(name.equals("BUSY-SPIN") || name.equals("BUSY_SPIN") ? "SPIN" : name);
+        }
+    }
+
+    /**
+     * Maximum number of messages taken from the mailbox at once. In executor mode this is also how many
+     * messages a drain task processes before yielding its worker to other agents.
+     */
+    private static final int MAX_BATCH = 64;
+
     /** The wrapped agent that does the actual computation. */
     private final Agent agent;
 
-    /** A queue of pending topic-message pairs to be processed by the agent. */
-    private final BlockingQueue<Pair> queue;
+    /** Pending topic-message pairs to be processed by the agent. */
+    private final Mailbox mailbox;
+
+    /** Behaviour when {@link #mailbox} is full. */
+    private final OverflowPolicy policy;
 
-    /** Worker thread that processes messages from the queue. */
+    /** Maximum time to wait for space under {@link OverflowPolicy#BLOCK}; 0 waits forever. */
+    private final long blockTimeoutMillis;
+
+    /** Latest pending message per topic under {@link OverflowPolicy#CONFLATE} (the mailbox then holds only topic markers). */
+    private final ConcurrentHashMap<String, Message> latest;
+
+    /** Messages discarded because the mailbox was full. */
+    private final LongAdder dropped = new LongAdder();
+
+    /** Messages replaced by a newer value for the same topic before being processed. */
+    private final LongAdder conflated = new LongAdder();
+
+    /** Time publishers spent in {@link #callback(String, Message)} waiting for mailbox space. */
+    private final LatencyHistogram enqueueWait = new LatencyHistogram();
+
+    /** Age of each message when it is handed to the agent. */
+    private final LatencyHistogram queueLatency = new LatencyHistogram();
+
+    /** Duration of each callback (or batch callback) of the wrapped agent. */
+    private final LatencyHistogram serviceTime = new LatencyHistogram();
+
+    /** Worker thread that processes messages from the mailbox ({@code null} in executor mode). */
     private final Thread thread;
 
+    /** Shared executor that runs drain tasks ({@code null} in thread mode). */
+    private final Executor executor;
+
+    /** True while a drain task is submitted or running; guarantees serial execution in executor mode. */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /*
+     * Batch buffers, reused for every drain. Only the single active consumer (the dedicated thread,
+     * or the one in-flight drain task) touches them.
+     */
+    private final String[] batchTopics = new String[MAX_BATCH];
+    private final Message[] batchMsgs = new Message[MAX_BATCH];
+
     /** Flag used to gracefully stop the background thread. */
     private volatile boolean running = true;
 
     /**
-     * Helper class to hold a pair of topic and message.
+     * Constructs a new ParallelAgent that wraps the given agent and processes messages asynchronously
+     * on its own dedicated thread. A full mailbox blocks the publisher until space is available.
+     *
+     * @param agent the agent to wrap
+     * @param capacity the maximum number of messages to buffer
      */
-    private static class Pair {
-        final String topic;
-        final Message msg;
-
-        Pair(String topic, Message msg) {
-            this.topic = topic;
-            this.msg = msg;
-        }
+    public ParallelAgent(Agent agent, int capacity) {
+        this(agent, capacity, OverflowPolicy.BLOCK, 0, null);
     }
 
     /**
-     * Constructs a new ParallelAgent that wraps the given agent and processes messages asynchronously.
+     * Constructs a new ParallelAgent whose callbacks run on a shared executor.
+     * A full mailbox blocks the publisher until space is available.
      *
      * @param agent the agent to wrap
      * @param capacity the maximum number of messages to buffer
+     * @param executor the shared executor (see {@link #newExecutor(Mode, int)})
      */
-    public ParallelAgent(Agent agent, int capacity) {
+    public ParallelAgent(Agent agent, int capacity, Executor executor) {
+        this(agent, capacity, OverflowPolicy.BLOCK, 0, executor);
+    }
+
+    /**
+     * Constructs a new ParallelAgent with an explicit overflow policy.
+     * <p>
+     * With a {@code null} executor the agent gets a dedicated thread. Otherwise no thread is held
+     * while the mailbox is empty, and at most one drain task per agent is in flight at any time,
+     * so the wrapped agent is never invoked concurrently.
+     *
+     * @param agent the agent to wrap
+     * @param capacity the maximum number of messages to buffer (ignored for {@link OverflowPolicy#CONFLATE})
+     * @param policy what to do when the mailbox is full
+     * @param blockTimeoutMillis how long {@link OverflowPolicy#BLOCK} waits before dropping; 0 waits forever
+     * @param executor the shared executor, or {@code null} for a dedicated thread
+     */
+    public ParallelAgent(Agent agent, int capacity, OverflowPolicy policy, long blockTimeoutMillis, Executor executor) {
+        this(agent, capacity, policy, blockTimeoutMillis, null, executor);
+    }
+
+    /**
+     * Constructs a new ParallelAgent with an explicit overflow policy and mailbox implementation.
+     * <p>
+     * A non-null {@code ringWait} selects the lock-free ring-buffer mailbox, which does not support
+     * {@link OverflowPolicy#DROP_OLDEST}. With {@link OverflowPolicy#CONFLATE} the ring must be large
+     * enough for one entry per input topic, or publishers wait for space.
+     *
+     * @param agent the agent to wrap
+     * @param capacity the maximum number of messages to buffer (rounded up to a power of two for the ring)
+     * @param policy what to do when the mailbox is full
+     * @param blockTimeoutMillis how long {@link OverflowPolicy#BLOCK} waits before dropping; 0 waits forever
+     * @param ringWait the ring-buffer wait strategy, or {@code null} for the blocking-queue mailbox
+     * @param executor the shared executor, or {@code null} for a dedicated thread
+     * @throws IllegalArgumentException if {@code ringWait} is set and {@code policy} is {@link OverflowPolicy#DROP_OLDEST}
+     */
+    public ParallelAgent(Agent agent, int capacity, OverflowPolicy policy, long blockTimeoutMillis,
+                         WaitStrategy ringWait, Executor executor) {
         this.agent = agent;
-        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.policy = policy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        this.executor = executor;
+
+        if (ringWait != null) {
+            if (policy == OverflowPolicy.DROP_OLDEST)
+                throw new IllegalArgumentException("The ring-buffer mailbox does not support DROP_OLDEST");
+            this.mailbox = new RingMailbox(capacity, ringWait);
+        } else if (policy == OverflowPolicy.CONFLATE) {
+            // Bounded by the number of distinct input topics: at most one marker per topic is queued
+            this.mailbox = new QueueMailbox(Integer.MAX_VALUE);
+        } else {
+            this.mailbox = new QueueMailbox(capacity);
+        }
+        this.latest = policy == OverflowPolicy.CONFLATE ? new ConcurrentHashMap<>() : null;
+
+        if (executor != null) {
+            this.thread = null;
+            return;
+        }
 
         this.thread = new Thread(() -> {
             try {
-                while (running || !queue.isEmpty()) {
-                    Pair p = queue.take();
-                    agent.callback(p.topic, p.msg);
+                while (running || !mailbox.isEmpty()) {
+                    mailbox.await();
+                    deliverBatch(mailbox.drain(batchTopics, batchMsgs, MAX_BATCH));
                 }
             } catch (InterruptedException e) {
                 // Quietly exit the loop when interrupted
@@ -60,6 +259,46 @@ public class ParallelAgent implements Agent {
         thread.start();
     }
 
+    /**
+     * Creates an executor suitable for running agents in the given mode.
+     *
+     * @param mode the execution mode
+     * @param workers number of worker threads for {@link Mode#POOL} (ignored for virtual threads)
+     * @return the executor, or {@code null} for {@link Mode#THREAD}
+     */
+    public static ExecutorService newExecutor(Mode mode, int workers) {
+        switch (mode) {
+            case VIRTUAL:
+                try {
+                    // Looked up reflectively so the code still compiles and runs on Java 17
+                    Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                    return (ExecutorService) m.invoke(null);
+                } catch (ReflectiveOperationException e) {
+                    Log.warn("❗ Virtual threads are not available, using a worker pool instead.");
+                    return newExecutor(Mode.POOL, workers);
+                }
+            case POOL:
+                AtomicInteger ids = new AtomicInteger();
+                ThreadFactory factory = r -> {
+                    Thread t = new Thread(r, "agent-worker-" + ids.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                };
+                return Executors.newFixedThreadPool(Math.max(1, workers), factory);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the wrapped agent.
+     *
+     * @return the agent whose callbacks this wrapper executes
+     */
+    public Agent getAgent() {
+        return agent;
+    }
+
     /**
      * Returns the name of the wrapped agent.
      *
@@ -78,28 +317,195 @@ public class ParallelAgent implements Agent {
         agent.reset();
     }
 
+    /**
+     * Returns the number of messages discarded because the mailbox was full.
+     *
+     * @return the drop count since construction
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Returns the number of messages superseded by a newer value for the same topic
+     * (only under {@link OverflowPolicy#CONFLATE}).
+     *
+     * @return the conflation count since construction
+     */
+    public long getConflatedCount() {
+        return conflated.sum();
+    }
+
+    /**
+     * Returns how long publishers waited for mailbox space under {@link OverflowPolicy#BLOCK}
+     * (0 for messages that found space immediately).
+     *
+     * @return the enqueue wait histogram
+     */
+    public LatencyHistogram getEnqueueWait() {
+        return enqueueWait;
+    }
+
+    /**
+     * Returns the age of messages at the moment they were handed to the wrapped agent, measured
+     * from their creation; this is dominated by time spent waiting in the mailbox.
+     *
+     * @return the queue latency histogram
+     */
+    public LatencyHistogram getQueueLatency() {
+        return queueLatency;
+    }
+
+    /**
+     * Returns how long the wrapped agent's callbacks ran, one sample per callback or batch.
+     *
+     * @return the service time histogram
+     */
+    public LatencyHistogram getServiceTime() {
+        return serviceTime;
+    }
+
+    /**
+     * Returns the number of messages currently waiting in the mailbox.
+     *
+     * @return the mailbox depth
+     */
+    public int getQueueSize() {
+        return mailbox.size();
+    }
+
     /**
      * Asynchronously schedules a message to be processed by the wrapped agent.
+     * If the mailbox is full, the configured {@link OverflowPolicy} applies.
      *
      * @param topic the name of the topic the message came from
      * @param msg the message to process
      */
     @Override
     public void callback(String topic, Message msg) {
+        if (enqueue(topic, msg) && executor != null) {
+            schedule();
+        }
+    }
+
+    // Applies the overflow policy; returns true if the mailbox gained an entry
+    private boolean enqueue(String topic, Message msg) {
+        switch (policy) {
+            case CONFLATE:
+                if (latest.put(topic, msg) != null) {
+                    conflated.increment(); // a marker for this topic is already queued
+                    return false;
+                }
+                try {
+                    mailbox.offer(topic, null, 0);
+                    return true;
+                } catch (InterruptedException e) {
+                    latest.remove(topic);
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            case DROP_NEWEST:
+                if (mailbox.offer(topic, msg)) return true;
+                dropped.increment();
+                return false;
+            case DROP_OLDEST:
+                while (!mailbox.offer(topic, msg)) {
+                    if (mailbox.evictOldest()) dropped.increment();
+                }
+                return true;
+            default:
+                if (mailbox.offer(topic, msg)) {
+                    enqueueWait.record(0);
+                    return true;
+                }
+                long start = System.nanoTime();
+                try {
+                    if (mailbox.offer(topic, msg, TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis))) {
+                        enqueueWait.record(System.nanoTime() - start);
+                        return true;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                enqueueWait.record(System.nanoTime() - start);
+                dropped.increment();
+                return false;
+        }
+    }
+
+    // Hands drained entries to the wrapped agent, resolving conflation markers to their latest value
+    private void deliverBatch(int drained) {
+        int n = drained;
+        if (latest != null) {
+            n = 0;
+            for (int i = 0; i < drained; i++) {
+                Message msg = latest.remove(batchTopics[i]);
+                if (msg != null) {
+                    batchTopics[n] = batchTopics[i];
+                    batchMsgs[n] = msg;
+                    n++;
+                }
+            }
+            Arrays.fill(batchTopics, n, drained, null);
+        }
+        if (n == 0) return;
+        long start = 0;
+        Message prev = null;
+        if (TraceContext.ENABLED) {
+            start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                queueLatency.record(start - batchMsgs[i].timestamp);
+            }
+            prev = TraceContext.enter(TraceContext.oldest(batchMsgs, n));
+        }
+        try {
+            if (n == 1) {
+                agent.callback(batchTopics[0], batchMsgs[0]);
+            } else {
+                agent.callbackBatch(batchTopics, batchMsgs, n);
+            }
+        } finally {
+            if (TraceContext.ENABLED) {
+                serviceTime.record(System.nanoTime() - start);
+                TraceContext.exit(prev);
+            }
+            Arrays.fill(batchTopics, 0, n, null);
+            Arrays.fill(batchMsgs, 0, n, null);
+        }
+    }
+
+    // Submits a drain task unless one is already pending or running
+    private void schedule() {
+        if (running && scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    // Runs on the shared executor: processes one batch, then reschedules if more messages are waiting
+    private void drain() {
         try {
-            queue.put(new Pair(topic, msg));
-        } catch (InterruptedException e) {
-            // Optional: log error or ignore
+            if (running) {
+                deliverBatch(mailbox.drain(batchTopics, batchMsgs, MAX_BATCH));
+            }
+        } finally {
+            scheduled.set(false);
+        }
+        // A message may have arrived after the last drain but before the flag was cleared
+        if (!mailbox.isEmpty()) {
+            schedule();
         }
     }
 
     /**
      * Gracefully shuts down the background thread and closes the wrapped agent.
+     * In executor mode, pending messages are discarded; the executor itself is owned by the caller.
      */
     @Override
     public void close() {
         running = false;
-        thread.interrupt(); // unblock if waiting
+        if (thread != null) {
+            thread.interrupt(); // unblock if waiting
+        }
         agent.close();
     }
 }
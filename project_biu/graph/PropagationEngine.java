@@ -0,0 +1,262 @@
+package project_biu.graph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A synchronous, glitch-free propagation engine for an acyclic {@link Graph}.
+ * <p>
+ * By default {@link Topic#publish(Message)} calls each subscriber directly, and a subscriber that
+ * publishes recurses further. In a diamond-shaped graph an agent can then fire once per changed
+ * input and emit intermediate results, and long chains grow the call stack.
+ * <p>
+ * This engine compiles the graph into a topological order of its agents. Once
+ * {@link #attach() attached}, a publish to any of the graph's topics runs one propagation:
+ * the engine records which agents are affected, then evaluates each affected agent exactly once,
+ * in topological order, after all of its affected inputs have settled. Publishes made by agents
+ * during a propagation are recorded rather than delivered recursively; if an agent publishes the
+ * same topic several times, only the last value is propagated. Propagations are serialized, so
+ * concurrent publishers observe a deterministic order of evaluation.
+ * <p>
+ * The engine works on the subscriptions that existed when it was compiled; recompile it after
+ * the topology changes.
+ */
+public class PropagationEngine {
+
+    /** Subscribers in topological order; an agent's index in this array is its rank. */
+    private final Agent[] agents;
+
+    /** Topics of the graph, indexed by engine-local topic index. */
+    private final Topic[] topics;
+
+    /** For each topic index: the ranks of its subscribers. */
+    private final int[][] subRanks;
+
+    /** For each topic index: the input slot it occupies at each subscriber (parallel to {@link #subRanks}). */
+    private final int[][] subSlots;
+
+    /** For each rank: input topic names by slot. */
+    private final String[][] inputNames;
+
+    /** For each rank: the latest value recorded for each input slot during the current propagation. */
+    private final Message[][] pending;
+
+    /** Ranks of agents that still need to be evaluated in the current propagation. */
+    private final BitSet dirty;
+
+    /** Reused argument buffers for {@link Agent#callbackBatch(String[], Message[], int)}. */
+    private final String[] batchTopics;
+    private final Message[] batchMsgs;
+
+    /** Serializes propagations; reentrant so agent publishes on the propagating thread are recorded. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final LongAdder propagations = new LongAdder();
+    private final LongAdder evaluations = new LongAdder();
+
+    private PropagationEngine(Agent[] agents, Topic[] topics, int[][] subRanks, int[][] subSlots, String[][] inputNames) {
+        this.agents = agents;
+        this.topics = topics;
+        this.subRanks = subRanks;
+        this.subSlots = subSlots;
+        this.inputNames = inputNames;
+        this.pending = new Message[agents.length][];
+        int maxInputs = 1;
+        for (int r = 0; r < agents.length; r++) {
+            pending[r] = new Message[inputNames[r].length];
+            maxInputs = Math.max(maxInputs, inputNames[r].length);
+        }
+        this.dirty = new BitSet(agents.length);
+        this.batchTopics = new String[maxInputs];
+        this.batchMsgs = new Message[maxInputs];
+    }
+
+    /**
+     * Compiles a graph built by {@link Graph#createFromTopics(Iterable)} into a propagation schedule.
+     *
+     * @param g the graph; its nodes must reference their topics and agents
+     * @return a detached engine for the graph
+     * @throws IllegalArgumentException if the graph has a cycle, or a node does not reference its topic or agent
+     */
+    public static PropagationEngine compile(Graph g) {
+        // Kahn's algorithm over all nodes; agents are ranked in the order they are emitted
+        Map<Node, Integer> indegree = new IdentityHashMap<>();
+        for (Node n : g) indegree.putIfAbsent(n, 0);
+        for (Node n : g) {
+            for (Node m : n.getEdges()) indegree.merge(m, 1, Integer::sum);
+        }
+        Deque<Node> ready = new ArrayDeque<>();
+        for (Node n : g) {
+            if (indegree.get(n) == 0) ready.add(n);
+        }
+
+        Map<Agent, Integer> rankOf = new IdentityHashMap<>();
+        List<Topic> topicList = new ArrayList<>();
+        int visited = 0;
+        while (!ready.isEmpty()) {
+            Node n = ready.poll();
+            visited++;
+            if (n.isTopic()) {
+                if (n.getTopic() == null)
+                    throw new IllegalArgumentException("Topic node " + n.getName() + " has no topic");
+                topicList.add(n.getTopic());
+            } else {
+                if (n.getAgent() == null)
+                    throw new IllegalArgumentException("Agent node " + n.getName() + " has no agent");
+                rankOf.put(n.getAgent(), rankOf.size());
+            }
+            for (Node m : n.getEdges()) {
+                if (indegree.merge(m, -1, Integer::sum) == 0) ready.add(m);
+            }
+        }
+        if (visited < indegree.size()) {
+            throw new IllegalArgumentException("Graph has cycles and cannot be scheduled topologically");
+        }
+
+        // Resolve subscriptions to ranks and input slots; the subscriber object (possibly a wrapper) is what gets called
+        Agent[] agents = new Agent[rankOf.size()];
+        List<List<String>> inputs = new ArrayList<>();
+        for (int r = 0; r < agents.length; r++) inputs.add(new ArrayList<>());
+        Topic[] topics = topicList.toArray(new Topic[0]);
+        int[][] subRanks = new int[topics.length][];
+        int[][] subSlots = new int[topics.length][];
+        for (int i = 0; i < topics.length; i++) {
+            List<Agent> subs = topics[i].getSubscribers();
+            subRanks[i] = new int[subs.size()];
+            subSlots[i] = new int[subs.size()];
+            int k = 0;
+            for (Agent sub : subs) {
+                Agent key = (sub instanceof ParallelAgent) ? ((ParallelAgent) sub).getAgent() : sub;
+                Integer rank = rankOf.get(key);
+                if (rank == null) continue; // subscribed after the graph was built
+                if (agents[rank] == null) agents[rank] = sub;
+                subRanks[i][k] = rank;
+                subSlots[i][k] = inputs.get(rank).size();
+                inputs.get(rank).add(topics[i].name);
+                k++;
+            }
+            subRanks[i] = Arrays.copyOf(subRanks[i], k);
+            subSlots[i] = Arrays.copyOf(subSlots[i], k);
+        }
+
+        String[][] inputNames = new String[agents.length][];
+        for (int r = 0; r < agents.length; r++) {
+            inputNames[r] = inputs.get(r).toArray(new String[0]);
+        }
+        return new PropagationEngine(agents, topics, subRanks, subSlots, inputNames);
+    }
+
+    /**
+     * Routes publishes on all of the graph's topics through this engine.
+     */
+    public void attach() {
+        for (int i = 0; i < topics.length; i++) {
+            topics[i].attach(this, i);
+        }
+    }
+
+    /**
+     * Restores direct (recursive) delivery on the graph's topics.
+     */
+    public void detach() {
+        for (Topic t : topics) {
+            t.detach(this);
+        }
+    }
+
+    /**
+     * Returns the number of propagations run so far (one per publish from outside the engine).
+     *
+     * @return the propagation count
+     */
+    public long getPropagationCount() {
+        return propagations.sum();
+    }
+
+    /**
+     * Returns the number of agent evaluations performed so far.
+     *
+     * @return the evaluation count
+     */
+    public long getEvaluationCount() {
+        return evaluations.sum();
+    }
+
+    /**
+     * Publishes a message to the topic with the given engine-local index.
+     * Called by {@link Topic#publish(Message)} while the engine is attached.
+     *
+     * @param index the topic's index in this engine
+     * @param m     the message
+     */
+    void publish(int index, Message m) {
+        if (lock.isHeldByCurrentThread()) {
+            record(index, m); // published by an agent during the current propagation
+            return;
+        }
+        lock.lock();
+        try {
+            propagations.increment();
+            record(index, m);
+            for (int r = dirty.nextSetBit(0); r >= 0; r = dirty.nextSetBit(0)) {
+                dirty.clear(r);
+                evaluate(r);
+            }
+        } finally {
+            // Leave no stale inputs behind if an agent threw
+            for (int r = dirty.nextSetBit(0); r >= 0; r = dirty.nextSetBit(r + 1)) {
+                Arrays.fill(pending[r], null);
+            }
+            dirty.clear();
+            lock.unlock();
+        }
+    }
+
+    // Stores the topic's new value and marks its subscribers for evaluation
+    private void record(int index, Message m) {
+        topics[index].store(m);
+        int[] ranks = subRanks[index];
+        int[] slots = subSlots[index];
+        for (int k = 0; k < ranks.length; k++) {
+            pending[ranks[k]][slots[k]] = m;
+            dirty.set(ranks[k]);
+        }
+    }
+
+    // Delivers every pending input of one agent in a single call
+    private void evaluate(int rank) {
+        Message[] in = pending[rank];
+        String[] names = inputNames[rank];
+        int n = 0;
+        for (int slot = 0; slot < in.length; slot++) {
+            if (in[slot] != null) {
+                batchTopics[n] = names[slot];
+                batchMsgs[n] = in[slot];
+                in[slot] = null;
+                n++;
+            }
+        }
+        if (n == 0) return;
+        evaluations.increment();
+        Message prev = TraceContext.enter(TraceContext.oldest(batchMsgs, n));
+        try {
+            if (n == 1) {
+                agents[rank].callback(batchTopics[0], batchMsgs[0]);
+            } else {
+                agents[rank].callbackBatch(batchTopics, batchMsgs, n);
+            }
+        } finally {
+            TraceContext.exit(prev);
+            Arrays.fill(batchTopics, 0, n, null);
+            Arrays.fill(batchMsgs, 0, n, null);
+        }
+    }
+}
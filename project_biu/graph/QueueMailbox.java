@@ -0,0 +1,97 @@
+package project_biu.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Mailbox} backed by a lock-based {@link BlockingQueue}.
+ * <p>
+ * This is the default mailbox of {@link ParallelAgent}. It allocates one small entry object per
+ * message and supports every {@link ParallelAgent.OverflowPolicy}.
+ */
+class QueueMailbox implements Mailbox {
+
+    /**
+     * Helper class to hold a pair of topic and message.
+     */
+    private static class Pair {
+        final String topic;
+        final Message msg;
+
+        Pair(String topic, Message msg) {
+            this.topic = topic;
+            this.msg = msg;
+        }
+    }
+
+    private final BlockingQueue<Pair> queue;
+
+    /** Reusable buffer for {@link BlockingQueue#drainTo(java.util.Collection, int)}; consumer only. */
+    private final List<Pair> buffer = new ArrayList<>();
+
+    /** Entry taken by {@link #await()} but not yet drained; consumer only. */
+    private Pair head;
+
+    /**
+     * Creates a queue mailbox.
+     *
+     * @param capacity the maximum number of entries, or {@link Integer#MAX_VALUE} for an unbounded queue
+     */
+    QueueMailbox(int capacity) {
+        this.queue = capacity == Integer.MAX_VALUE ? new LinkedBlockingQueue<>() : new ArrayBlockingQueue<>(capacity);
+    }
+
+    @Override
+    public boolean offer(String topic, Message msg) {
+        return queue.offer(new Pair(topic, msg));
+    }
+
+    @Override
+    public boolean offer(String topic, Message msg, long timeoutNanos) throws InterruptedException {
+        if (timeoutNanos <= 0) {
+            queue.put(new Pair(topic, msg));
+            return true;
+        }
+        return queue.offer(new Pair(topic, msg), timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public boolean evictOldest() {
+        return queue.poll() != null;
+    }
+
+    @Override
+    public int drain(String[] topics, Message[] msgs, int max) {
+        int n = 0;
+        if (head != null) {
+            topics[0] = head.topic;
+            msgs[0] = head.msg;
+            head = null;
+            n = 1;
+        }
+        queue.drainTo(buffer, max - n);
+        for (Pair p : buffer) {
+            topics[n] = p.topic;
+            msgs[n] = p.msg;
+            n++;
+        }
+        buffer.clear();
+        return n;
+    }
+
+    @Override
+    public void await() throws InterruptedException {
+        if (head == null) {
+            head = queue.take();
+        }
+    }
+
+    @Override
+    public int size() {
+        return queue.size() + (head != null ? 1 : 0);
+    }
+}
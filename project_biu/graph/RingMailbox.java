@@ -0,0 +1,156 @@
+package project_biu.graph;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free, pre-allocated multi-producer/single-consumer ring buffer {@link Mailbox}.
+ * <p>
+ * Topics and messages are stored directly in reusable slots, so enqueuing allocates nothing.
+ * Each slot carries a sequence number: producers claim a position with a CAS on {@code tail},
+ * fill the slot and then publish it by advancing the slot's sequence; the single consumer reads
+ * slots in order and hands them back by moving their sequence one lap ahead.
+ * <p>
+ * How the consumer waits for work and how producers wait for space is selected by a
+ * {@link ParallelAgent.WaitStrategy}. Removing the oldest entry from the producer side is not
+ * supported, so {@link ParallelAgent.OverflowPolicy#DROP_OLDEST} cannot be used with this mailbox.
+ */
+class RingMailbox implements Mailbox {
+
+    /** Pause used by the parking strategies between checks. */
+    private static final long PARK_NANOS = 1_000;
+
+    private final String[] topics;
+    private final Message[] msgs;
+    private final AtomicLongArray sequence;
+    private final int mask;
+    private final ParallelAgent.WaitStrategy wait;
+
+    /** Next position producers will claim. */
+    private final AtomicLong tail = new AtomicLong();
+
+    /** Next position the consumer will read; written only by the consumer. */
+    private final AtomicLong head = new AtomicLong();
+
+    /** Consumer parked in {@link #await()} under {@link ParallelAgent.WaitStrategy#BLOCK}, if any. */
+    private volatile Thread waiter;
+
+    /**
+     * Creates a ring mailbox.
+     *
+     * @param capacity the minimum number of slots (rounded up to a power of two)
+     * @param wait     how the consumer and producers wait
+     */
+    RingMailbox(int capacity, ParallelAgent.WaitStrategy wait) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.topics = new String[size];
+        this.msgs = new Message[size];
+        this.sequence = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.wait = wait;
+        for (int i = 0; i < size; i++) {
+            sequence.set(i, i);
+        }
+    }
+
+    @Override
+    public boolean offer(String topic, Message msg) {
+        while (true) {
+            long pos = tail.get();
+            int idx = (int) pos & mask;
+            long dif = sequence.get(idx) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    topics[idx] = topic;
+                    msgs[idx] = msg;
+                    if (wait == ParallelAgent.WaitStrategy.BLOCK) {
+                        sequence.set(idx, pos + 1); // full fence: must be visible before reading waiter
+                        Thread w = waiter;
+                        if (w != null) LockSupport.unpark(w);
+                    } else {
+                        sequence.lazySet(idx, pos + 1);
+                    }
+                    return true;
+                }
+            } else if (dif < 0) {
+                return false; // the slot still holds an entry from the previous lap
+            }
+            // otherwise another producer claimed this position first; retry
+        }
+    }
+
+    @Override
+    public boolean offer(String topic, Message msg, long timeoutNanos) throws InterruptedException {
+        long deadline = timeoutNanos > 0 ? System.nanoTime() + timeoutNanos : 0;
+        while (!offer(topic, msg)) {
+            if (Thread.interrupted()) throw new InterruptedException();
+            if (deadline != 0 && System.nanoTime() - deadline >= 0) return false;
+            backOff();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean evictOldest() {
+        throw new UnsupportedOperationException("RingMailbox entries can only be removed by the consumer");
+    }
+
+    @Override
+    public int drain(String[] topicsOut, Message[] msgsOut, int max) {
+        long pos = head.get();
+        int n = 0;
+        while (n < max) {
+            int idx = (int) pos & mask;
+            if (sequence.get(idx) != pos + 1) break; // not yet published
+            topicsOut[n] = topics[idx];
+            msgsOut[n] = msgs[idx];
+            topics[idx] = null;
+            msgs[idx] = null;
+            sequence.lazySet(idx, pos + mask + 1); // hand the slot back for the next lap
+            pos++;
+            n++;
+        }
+        head.lazySet(pos);
+        return n;
+    }
+
+    @Override
+    public void await() throws InterruptedException {
+        while (isEmpty()) {
+            if (wait == ParallelAgent.WaitStrategy.BLOCK) {
+                waiter = Thread.currentThread();
+                if (isEmpty()) LockSupport.park(this);
+                waiter = null;
+            } else {
+                backOff();
+            }
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        long pos = head.get();
+        return sequence.get((int) pos & mask) != pos + 1;
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    // One pause of the configured strategy; producers waiting for space never block indefinitely
+    private void backOff() {
+        switch (wait) {
+            case SPIN:
+                Thread.onSpinWait();
+                break;
+            case YIELD:
+                Thread.yield();
+                break;
+            default:
+                LockSupport.parkNanos(this, PARK_NANOS);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package project_biu.graph;
+
+import project_biu.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the agents of a {@link Graph} on a fixed set of worker threads, one per shard.
+ * <p>
+ * The graph is split into weakly connected components, and whole components are spread over the
+ * shards so that each shard carries roughly the same number of agents. Every topic of a component
+ * is bound to its shard: a publish from any other thread is handed to the shard's mailbox, while a
+ * publish made on the shard's own worker (that is, by one of its agents) is delivered with plain
+ * method calls. Independent pipelines therefore run in parallel on separate cores, and a message
+ * crosses threads only once, when it enters its pipeline.
+ * <p>
+ * Agents must subscribe to their topics directly (not through a {@link ParallelAgent}). The
+ * scheduler works on the subscriptions that existed when it was built; rebuild it after the
+ * topology changes.
+ */
+public class ShardedScheduler {
+
+    /** The shards, each with its own worker thread. */
+    private final Shard[] shards;
+
+    /**
+     * Partitions a graph and starts one worker per shard. Topics are not routed to the workers
+     * until {@link #attach()} is called.
+     *
+     * @param graph              the graph, built with {@link Graph#createFromTopics()}
+     * @param shardCount         the maximum number of shards (worker threads)
+     * @param capacity           mailbox capacity of each shard
+     * @param policy             what a shard's mailbox does when full
+     * @param blockTimeoutMillis how long {@link ParallelAgent.OverflowPolicy#BLOCK} waits; 0 waits forever
+     * @param ringWait           the ring-buffer wait strategy, or {@code null} for the blocking-queue mailbox
+     * @return the scheduler
+     * @throws IllegalArgumentException if {@code shardCount} is less than 1
+     */
+    public static ShardedScheduler partition(Graph graph, int shardCount, int capacity,
+                                             ParallelAgent.OverflowPolicy policy, long blockTimeoutMillis,
+                                             ParallelAgent.WaitStrategy ringWait) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be at least 1: " + shardCount);
+        }
+
+        // Union-find over the nodes; edges are treated as undirected
+        Map<Node, Integer> index = new IdentityHashMap<>();
+        for (Node n : graph) {
+            index.put(n, index.size());
+        }
+        int[] parent = new int[index.size()];
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+        for (Node n : graph) {
+            for (Node m : n.getEdges()) {
+                Integer j = index.get(m);
+                if (j != null) union(parent, index.get(n), j);
+            }
+        }
+
+        // Group nodes by component, keeping only components that contain agents
+        Map<Integer, List<Node>> components = new HashMap<>();
+        Map<Integer, Integer> agentCounts = new HashMap<>();
+        for (Node n : graph) {
+            int root = find(parent, index.get(n));
+            components.computeIfAbsent(root, k -> new ArrayList<>()).add(n);
+            if (!n.isTopic()) agentCounts.merge(root, 1, Integer::sum);
+        }
+        List<Integer> roots = new ArrayList<>(agentCounts.keySet());
+        roots.sort((a, b) -> Integer.compare(agentCounts.get(b), agentCounts.get(a)));
+
+        // Largest component first onto the least-loaded shard
+        Shard[] shards = new Shard[Math.min(shardCount, roots.size())];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i);
+        }
+        for (int root : roots) {
+            Shard target = shards[0];
+            for (Shard s : shards) {
+                if (s.agentCount < target.agentCount) target = s;
+            }
+            for (Node n : components.get(root)) {
+                if (n.getTopic() != null) target.topics.put(n.getTopic().name, n.getTopic());
+            }
+            target.agentCount += agentCounts.get(root);
+        }
+
+        for (Shard s : shards) {
+            s.runner = new ParallelAgent(s, capacity, policy, blockTimeoutMillis, ringWait, null);
+        }
+        return new ShardedScheduler(shards);
+    }
+
+    private ShardedScheduler(Shard[] shards) {
+        this.shards = shards;
+        for (Shard s : shards) {
+            s.scheduler = this;
+        }
+    }
+
+    /**
+     * Returns the scheduler whose shard currently delivers a topic's messages.
+     *
+     * @param t the topic
+     * @return the attached scheduler, or {@code null} if the topic is not bound to a shard
+     */
+    public static ShardedScheduler of(Topic t) {
+        Shard s = t.getShard();
+        return s == null ? null : s.scheduler;
+    }
+
+    /**
+     * Routes publishes on the graph's topics through their shards.
+     */
+    public void attach() {
+        for (Shard s : shards) {
+            for (Topic t : s.topics.values()) {
+                t.attach(s);
+            }
+        }
+    }
+
+    /**
+     * Restores direct delivery for the graph's topics. Messages already queued are still delivered
+     * by the workers.
+     */
+    public void detach() {
+        for (Shard s : shards) {
+            for (Topic t : s.topics.values()) {
+                t.detach(s);
+            }
+        }
+    }
+
+    /**
+     * Detaches the topics and stops the worker threads.
+     */
+    public void close() {
+        detach();
+        for (Shard s : shards) {
+            s.runner.close();
+        }
+    }
+
+    /**
+     * Returns the number of shards (worker threads).
+     *
+     * @return the shard count
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Returns the number of agents assigned to a shard.
+     *
+     * @param shard the shard index
+     * @return the agent count
+     */
+    public int getAgentCount(int shard) {
+        return shards[shard].agentCount;
+    }
+
+    /**
+     * Returns the asynchronous runner of each shard, in shard order. Its name is
+     * {@code shard-<index>}, and its queue and latency statistics are those of the shard.
+     *
+     * @return an unmodifiable list of the runners
+     */
+    public List<ParallelAgent> getRunners() {
+        List<ParallelAgent> runners = new ArrayList<>(shards.length);
+        for (Shard s : shards) {
+            runners.add(s.runner);
+        }
+        return Collections.unmodifiableList(runners);
+    }
+
+    /**
+     * Returns the number of messages waiting to enter a shard.
+     *
+     * @param shard the shard index
+     * @return the mailbox depth
+     */
+    public int getQueueSize(int shard) {
+        return shards[shard].runner.getQueueSize();
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int ra = find(parent, a);
+        int rb = find(parent, b);
+        if (ra != rb) parent[ra] = rb;
+    }
+
+    /**
+     * One partition of the graph. Acts as the agent behind the shard's {@link ParallelAgent}:
+     * each queued message is re-published on the worker thread, where it is delivered directly.
+     */
+    static final class Shard implements Agent {
+        private final int index;
+        private final Map<String, Topic> topics = new HashMap<>();
+        private int agentCount;
+        private ParallelAgent runner;
+        private ShardedScheduler scheduler;
+
+        /** The runner's thread, recorded on its first delivery. */
+        private volatile Thread worker;
+
+        Shard(int index) {
+            this.index = index;
+        }
+
+        /** Whether the calling thread is this shard's worker. */
+        boolean isWorkerThread() {
+            return Thread.currentThread() == worker;
+        }
+
+        /** Hands a publish from another thread to the worker. */
+        void enqueue(Topic t, Message m) {
+            runner.callback(t.name, m);
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            if (worker == null) worker = Thread.currentThread();
+            try {
+                topics.get(topic).publish(msg);
+            } catch (RuntimeException e) {
+                Log.error("❗ Shard " + index + " failed to deliver " + topic + ": " + e.getMessage(), e);
+            }
+        }
+
+        @Override public String getName() { return "shard-" + index; }
+
+        @Override public void reset() {}
+
+        @Override public void close() {}
+    }
+}
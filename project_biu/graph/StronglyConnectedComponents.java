@@ -0,0 +1,164 @@
+package project_biu.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The strongly connected components of a graph, computed once with an iterative version of
+ * Tarjan's algorithm.
+ * <p>
+ * The analysis runs in O(V + E) time over a {@link GraphIndex} and uses an explicit stack, so it
+ * neither repeats work per start node nor overflows the call stack on long chains. A component
+ * with more than one node, or a node with an edge to itself, is a cycle.
+ */
+public class StronglyConnectedComponents {
+    private final GraphIndex index;
+    private final int[] component;
+    private final int count;
+    private final List<List<Node>> cycles;
+
+    /**
+     * Analyses the given nodes.
+     *
+     * @param nodes the nodes, e.g. a {@link Graph}
+     * @return the analysis
+     */
+    public static StronglyConnectedComponents of(List<Node> nodes) {
+        return new StronglyConnectedComponents(GraphIndex.of(nodes));
+    }
+
+    /**
+     * Analyses an indexed graph.
+     *
+     * @param index the graph
+     */
+    public StronglyConnectedComponents(GraphIndex index) {
+        this.index = index;
+        int n = index.size();
+        this.component = new int[n];
+
+        int[] order = new int[n];      // discovery index, -1 while unvisited
+        int[] low = new int[n];
+        int[] next = new int[n];       // next edge to explore, per node on the call stack
+        int[] call = new int[n];       // simulated recursion stack
+        int[] stack = new int[n];      // Tarjan's stack of nodes not yet assigned to a component
+        boolean[] onStack = new boolean[n];
+        boolean[] selfLoop = new boolean[n];
+        Arrays.fill(order, -1);
+
+        int counter = 0, sp = 0, components = 0;
+        for (int s = 0; s < n; s++) {
+            if (order[s] != -1) continue;
+            int csp = 0;
+            order[s] = low[s] = counter++;
+            stack[sp++] = s;
+            onStack[s] = true;
+            next[s] = index.edgeStart(s);
+            call[csp++] = s;
+
+            while (csp > 0) {
+                int v = call[csp - 1];
+                if (next[v] < index.edgeEnd(v)) {
+                    int w = index.target(next[v]++);
+                    if (order[w] == -1) {
+                        order[w] = low[w] = counter++;
+                        stack[sp++] = w;
+                        onStack[w] = true;
+                        next[w] = index.edgeStart(w);
+                        call[csp++] = w;
+                    } else if (onStack[w]) {
+                        if (w == v) selfLoop[v] = true;
+                        low[v] = Math.min(low[v], order[w]);
+                    }
+                    continue;
+                }
+
+                // All edges of v explored: return to the caller
+                csp--;
+                if (csp > 0) {
+                    int u = call[csp - 1];
+                    low[u] = Math.min(low[u], low[v]);
+                }
+                if (low[v] == order[v]) {
+                    int w;
+                    do {
+                        w = stack[--sp];
+                        onStack[w] = false;
+                        component[w] = components;
+                    } while (w != v);
+                    components++;
+                }
+            }
+        }
+        this.count = components;
+
+        // Group the members of every cyclic component
+        int[] sizes = new int[components];
+        for (int v = 0; v < n; v++) sizes[component[v]]++;
+        List<List<Node>> byComponent = new ArrayList<>(Collections.nCopies(components, null));
+        List<List<Node>> found = new ArrayList<>();
+        for (int v = 0; v < n; v++) {
+            int c = component[v];
+            if (sizes[c] > 1 || selfLoop[v]) {
+                List<Node> members = byComponent.get(c);
+                if (members == null) {
+                    members = new ArrayList<>(sizes[c]);
+                    byComponent.set(c, members);
+                    found.add(members);
+                }
+                members.add(index.node(v));
+            }
+        }
+        this.cycles = Collections.unmodifiableList(found);
+    }
+
+    /**
+     * Returns the indexed graph that was analysed.
+     *
+     * @return the graph index
+     */
+    public GraphIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the number of strongly connected components.
+     *
+     * @return the component count
+     */
+    public int getComponentCount() {
+        return count;
+    }
+
+    /**
+     * Returns the component of a node. Components are numbered in reverse topological order:
+     * every edge between different components goes from a higher to a lower number.
+     *
+     * @param v the node index in {@link #getIndex()}
+     * @return the component number
+     */
+    public int getComponent(int v) {
+        return component[v];
+    }
+
+    /**
+     * Returns whether the graph contains a cycle.
+     *
+     * @return true if any component is a cycle
+     */
+    public boolean hasCycles() {
+        return !cycles.isEmpty();
+    }
+
+    /**
+     * Returns the cycles of the graph: the nodes of every component with more than one node or
+     * with a self-loop, in graph order.
+     *
+     * @return an unmodifiable list of the cyclic components
+     */
+    public List<List<Node>> getCycles() {
+        return cycles;
+    }
+}
@@ -1,26 +1,88 @@
 package project_biu.graph;
 
-import java.util.ArrayList;
+import project_biu.metrics.LatencyHistogram;
+
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Represents a communication channel (topic) in the pub/sub system.
  * <p>
  * Topics can have multiple publishers and subscribers. When a message is published,
  * all subscribing agents receive it via their {@code callback()} method.
+ * <p>
+ * Subscriber and publisher lists are immutable snapshot arrays. {@link #publish(Message)} reads
+ * the current snapshot without locking, while (un)subscribing swaps in a new array with a CAS,
+ * so concurrent publishers never block and never see a list being modified.
+ * <p>
+ * While a {@link PropagationEngine} is attached, publishes are routed through the engine instead
+ * of being delivered recursively. While bound to a {@link ShardedScheduler} shard, publishes from
+ * threads other than the shard's worker are handed to that worker.
+ * <p>
+ * The last published message is kept as a thread-safe last-value cache with a per-topic
+ * {@link #getVersion() version}, so readers can poll cheaply and skip work when nothing changed.
+ * <p>
+ * With {@link #setChangeEpsilon(double) change detection} enabled, a publish whose value equals
+ * the last published one (within the epsilon) is dropped before it is stored or delivered, so
+ * unchanged values stop propagating at their source.
  */
 public class Topic {
+    private static final Agent[] NO_AGENTS = new Agent[0];
+
+    private static final AtomicReferenceFieldUpdater<Topic, Agent[]> SUBS =
+            AtomicReferenceFieldUpdater.newUpdater(Topic.class, Agent[].class, "subs");
+    private static final AtomicReferenceFieldUpdater<Topic, Agent[]> PUBS =
+            AtomicReferenceFieldUpdater.newUpdater(Topic.class, Agent[].class, "pubs");
+    private static final AtomicReferenceFieldUpdater<Topic, Agent[]> OBSERVERS =
+            AtomicReferenceFieldUpdater.newUpdater(Topic.class, Agent[].class, "observers");
+    private static final AtomicLongFieldUpdater<Topic> VERSION =
+            AtomicLongFieldUpdater.newUpdater(Topic.class, "version");
+
     /** The name (unique identifier) of the topic. */
     public final String name;
 
-    /** List of agents subscribed to this topic (i.e., consumers). */
-    public final List<Agent> subs = new ArrayList<>();
+    /** Snapshot of agents subscribed to this topic (i.e., consumers). Never mutated in place. */
+    private volatile Agent[] subs = NO_AGENTS;
+
+    /** Snapshot of agents that publish messages to this topic (i.e., producers). Never mutated in place. */
+    private volatile Agent[] pubs = NO_AGENTS;
+
+    /** Snapshot of observers, told about every stored message. Never mutated in place. */
+    private volatile Agent[] observers = NO_AGENTS;
+
+    /** The most recently published message, or {@code null} before the first publish. */
+    private volatile Message lastMessage;
+
+    /** Number of messages stored so far; always incremented after {@link #lastMessage} is written. */
+    private volatile long version;
+
+    /** Engine that schedules delivery for this topic, or {@code null} for direct delivery. */
+    private volatile PropagationEngine engine;
+
+    /** This topic's index inside {@link #engine}. */
+    private int engineIndex;
+
+    /** Shard whose worker delivers this topic's messages, or {@code null} to deliver on the caller. */
+    private volatile ShardedScheduler.Shard shard;
 
-    /** List of agents that publish messages to this topic (i.e., producers). */
-    public final List<Agent> pubs = new ArrayList<>();
+    /** Dense id assigned by the {@link TopicManagerSingleton.TopicManager} on registration, or -1. */
+    private int id = -1;
 
-    /** The most recently published message (used for display/debugging). */
-    private Message lastMessage;
+    /** The manager this topic is registered with, told about subscription changes; null if none. */
+    private volatile TopicManagerSingleton.TopicManager owner;
+
+    /** Largest difference still treated as "unchanged"; negative disables change detection. */
+    private volatile double changeEpsilon = -1;
+
+    /** Number of publishes dropped by change detection. */
+    private final LongAdder suppressed = new LongAdder();
+
+    /** Time from each stored message's trace origin to its arrival at this topic. */
+    private final LatencyHistogram latency = new LatencyHistogram();
 
     /**
      * Constructs a topic with the given name.
@@ -31,14 +93,116 @@ public class Topic {
         this.name = name;
     }
 
+    /**
+     * Returns the dense integer id of this topic within its topic manager.
+     *
+     * @return the topic id, or -1 if the topic has not been registered
+     */
+    public int getId() {
+        return id;
+    }
+
+    /** Assigns the topic id (called by the topic manager on registration). */
+    void setId(int id) {
+        this.id = id;
+    }
+
+    /** Sets the manager notified of subscription changes (called on registration and clearing). */
+    void setOwner(TopicManagerSingleton.TopicManager owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Returns the agents currently subscribed to this topic.
+     *
+     * @return an unmodifiable snapshot of the subscribers
+     */
+    public List<Agent> getSubscribers() {
+        return Collections.unmodifiableList(Arrays.asList(subs));
+    }
+
+    /**
+     * Returns the agents currently registered as publishers of this topic.
+     *
+     * @return an unmodifiable snapshot of the publishers
+     */
+    public List<Agent> getPublishers() {
+        return Collections.unmodifiableList(Arrays.asList(pubs));
+    }
+
+    /**
+     * Returns the most recently published message.
+     *
+     * @return the last message, or {@code null} if nothing has been published yet
+     */
+    public Message getLastMessage() {
+        return lastMessage;
+    }
+
+    /**
+     * Returns the version of this topic's value: 0 before the first publish, then incremented by
+     * every stored message (publishes suppressed by change detection do not count).
+     * <p>
+     * The message is written before the version is incremented, so a reader that calls
+     * {@code getVersion()} and then {@link #getLastMessage()} gets a message at least as new as the
+     * version. If a later {@code getVersion()} returns the same number, the value has not changed.
+     *
+     * @return the monotonically increasing value version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the end-to-end latency of the messages stored in this topic, measured from the
+     * moment their trace entered the graph (see {@link Message#originNanos}).
+     *
+     * @return the latency histogram
+     */
+    public LatencyHistogram getLatencyHistogram() {
+        return latency;
+    }
+
+    /**
+     * Enables or disables change detection for this topic.
+     * <p>
+     * When enabled, a message is not stored or delivered if it carries the same value as the last
+     * published message: numeric values are compared with {@code |new - old| <= epsilon}, and
+     * non-numeric ones by text. Use 0 for exact comparison.
+     *
+     * @param epsilon the tolerance, or a negative value (or NaN) to deliver every publish
+     */
+    public void setChangeEpsilon(double epsilon) {
+        this.changeEpsilon = epsilon >= 0 ? epsilon : -1;
+    }
+
+    /**
+     * Returns the change-detection tolerance.
+     *
+     * @return the epsilon, or -1 if change detection is disabled
+     */
+    public double getChangeEpsilon() {
+        return changeEpsilon;
+    }
+
+    /**
+     * Returns how many publishes change detection has dropped.
+     *
+     * @return the number of suppressed publishes
+     */
+    public long getSuppressedCount() {
+        return suppressed.sum();
+    }
+
     /**
      * Subscribes an agent to receive messages from this topic.
      *
      * @param a the agent to subscribe
      */
     public void subscribe(Agent a) {
-        if (!subs.contains(a)) {
-            subs.add(a);
+        if (add(SUBS, a)) {
+            TopicManagerSingleton.TopicManager o = owner;
+            if (o != null) o.subscriptionChanged(this, a, true);
         }
     }
 
@@ -48,30 +212,128 @@ public class Topic {
      * @param a the agent to remove
      */
     public void unsubscribe(Agent a) {
-        subs.remove(a);
+        if (remove(SUBS, a)) {
+            TopicManagerSingleton.TopicManager o = owner;
+            if (o != null) o.subscriptionChanged(this, a, false);
+        }
+    }
+
+    /**
+     * Adds an observer: an agent called with every message this topic stores, whatever the delivery
+     * mode. Unlike a subscriber, an observer is not part of the graph, so it is also called under a
+     * {@link PropagationEngine} or {@link ShardedScheduler} built before it was added.
+     * <p>
+     * Observers run on the publishing (or propagating) thread while the message is being delivered;
+     * they must return quickly and must not publish.
+     *
+     * @param a the observer
+     */
+    public void addObserver(Agent a) {
+        add(OBSERVERS, a);
+    }
+
+    /**
+     * Removes an observer.
+     *
+     * @param a the observer to remove
+     */
+    public void removeObserver(Agent a) {
+        remove(OBSERVERS, a);
     }
 
     /**
      * Publishes a message to this topic.
      * All subscribed agents will receive the message via their callback.
+     * <p>
+     * Delivery iterates the subscriber snapshot taken at the start of the call; agents
+     * subscribed or removed concurrently take effect from the next publish.
+     * <p>
+     * If change detection is enabled and {@code m} carries the same value as the last message,
+     * nothing happens. Concurrent publishers are each compared against whatever value they see,
+     * so a racing duplicate may still get through.
      *
      * @param m the message to publish
      */
     public void publish(Message m) {
+        ShardedScheduler.Shard s = shard;
+        if (s != null && !s.isWorkerThread()) {
+            s.enqueue(this, m);
+            return;
+        }
+        double eps = changeEpsilon;
+        if (eps >= 0 && sameValue(lastMessage, m, eps)) {
+            suppressed.increment();
+            return;
+        }
+        PropagationEngine e = engine;
+        if (e != null) {
+            e.publish(engineIndex, m);
+            return;
+        }
+        store(m);
+        Agent[] snapshot = subs;
+        if (snapshot.length == 0) return;
+        Message prev = TraceContext.enter(m);
+        try {
+            for (Agent a : snapshot) {
+                a.callback(this.name, m);
+            }
+        } finally {
+            TraceContext.exit(prev);
+        }
+    }
+
+    /** Records a published message and tells the observers, without delivering it to subscribers. */
+    void store(Message m) {
         this.lastMessage = m;
-        for (Agent a : subs) {
-            a.callback(this.name, m);
+        VERSION.incrementAndGet(this);
+        if (TraceContext.ENABLED) {
+            latency.record(System.nanoTime() - m.originNanos);
+        }
+        for (Agent a : observers) {
+            a.callback(name, m);
+        }
+    }
+
+    /** Routes future publishes through the given engine. */
+    void attach(PropagationEngine e, int index) {
+        this.engineIndex = index;
+        this.engine = e;
+    }
+
+    /** Restores direct delivery if the given engine is the one attached. */
+    void detach(PropagationEngine e) {
+        if (engine == e) {
+            engine = null;
         }
     }
 
+    /** Hands future publishes from other threads to the given shard's worker. */
+    void attach(ShardedScheduler.Shard s) {
+        this.shard = s;
+    }
+
+    /** Restores delivery on the publishing thread if the given shard is the one attached. */
+    void detach(ShardedScheduler.Shard s) {
+        if (shard == s) {
+            shard = null;
+        }
+    }
+
+    /** Returns the shard whose worker delivers this topic's messages, or {@code null}. */
+    ShardedScheduler.Shard getShard() {
+        return shard;
+    }
+
     /**
      * Registers an agent as a publisher of this topic.
      *
      * @param a the agent to add as a publisher
      */
     public void addPublisher(Agent a) {
-        if (!pubs.contains(a)) {
-            pubs.add(a);
+        if (add(PUBS, a)) {
+            TopicManagerSingleton.TopicManager o = owner;
+            if (o != null) o.publisherChanged(this, a, true);
         }
     }
 
@@ -81,6 +343,52 @@ public class Topic {
      * @param a the agent to remove
      */
     public void removePublisher(Agent a) {
-        pubs.remove(a);
+        if (remove(PUBS, a)) {
+            TopicManagerSingleton.TopicManager o = owner;
+            if (o != null) o.publisherChanged(this, a, false);
+        }
+    }
+
+    // Copy-on-write append; retries if another thread swapped the array in between
+    private boolean add(AtomicReferenceFieldUpdater<Topic, Agent[]> field, Agent a) {
+        while (true) {
+            Agent[] cur = field.get(this);
+            if (indexOf(cur, a) >= 0) return false;
+            Agent[] next = Arrays.copyOf(cur, cur.length + 1);
+            next[cur.length] = a;
+            if (field.compareAndSet(this, cur, next)) return true;
+        }
+    }
+
+    // Copy-on-write removal; retries if another thread swapped the array in between
+    private boolean remove(AtomicReferenceFieldUpdater<Topic, Agent[]> field, Agent a) {
+        while (true) {
+            Agent[] cur = field.get(this);
+            int i = indexOf(cur, a);
+            if (i < 0) return false;
+            Agent[] next = cur.length == 1 ? NO_AGENTS : new Agent[cur.length - 1];
+            System.arraycopy(cur, 0, next, 0, i);
+            System.arraycopy(cur, i + 1, next, i, cur.length - i - 1);
+            if (field.compareAndSet(this, cur, next)) return true;
+        }
+    }
+
+    // Whether two messages carry the same value, numerically within eps or otherwise by text
+    private static boolean sameValue(Message prev, Message m, double eps) {
+        if (prev == null) return false;
+        if (prev == m) return true;
+        double a = prev.asDouble;
+        double b = m.asDouble;
+        if (Double.isNaN(a) || Double.isNaN(b)) {
+            return Double.isNaN(a) && Double.isNaN(b) && prev.asText().equals(m.asText());
+        }
+        return a == b || Math.abs(a - b) <= eps;
+    }
+
+    private static int indexOf(Agent[] arr, Agent a) {
+        for (int i = 0; i < arr.length; i++) {
+            if (arr[i].equals(a)) return i;
+        }
+        return -1;
     }
 }
@@ -1,48 +1,277 @@
 package project_biu.graph;
 
-import java.util.ArrayList;
+import project_biu.util.Log;
+
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 /**
  * Singleton wrapper for managing all {@link Topic} instances in the system.
  * <p>
- * Provides global access to the {@link TopicManager} instance that tracks topics used in the pub/sub graph.
+ * Provides global access to the {@link TopicManager} instances that track the topics of each
+ * pub/sub graph. Several isolated graphs can be hosted side by side, each with its own topic
+ * registry, addressed by a graph id; the {@link #DEFAULT_GRAPH default graph} always exists.
+ * <p>
+ * {@link #get()} returns the manager {@link #bind(TopicManager) bound} to the calling thread, or
+ * the default one. Agents look up their topics through {@code get()} in their constructors, so a
+ * config binds its graph's manager while it creates them.
  */
 public class TopicManagerSingleton {
 
-    private static final TopicManager manager = new TopicManager();
+    /** Id of the graph that exists from startup and is used when no graph id is given. */
+    public static final String DEFAULT_GRAPH = "default";
+
+    /** Graph ids are used in URLs and file names, so they are restricted to a safe alphabet. */
+    private static final Pattern GRAPH_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    private static final TopicManager manager = new TopicManager(DEFAULT_GRAPH);
+
+    private static final ConcurrentHashMap<String, TopicManager> graphs = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<TopicManager> current = new ThreadLocal<>();
+
+    static {
+        graphs.put(DEFAULT_GRAPH, manager);
+    }
 
     /**
-     * Returns the shared TopicManager instance.
+     * Returns the TopicManager bound to the calling thread, or the default graph's manager.
      *
-     * @return the global {@link TopicManager}
+     * @return the current {@link TopicManager}
      */
     public static TopicManager get() {
-        return manager;
+        TopicManager tm = current.get();
+        return tm != null ? tm : manager;
     }
 
     /**
-     * Resets the topic manager by clearing all registered topics.
+     * Returns the TopicManager of the given graph, creating the graph if it does not exist yet.
+     *
+     * @param graphId the graph id (letters, digits, '_' and '-')
+     * @return the graph's {@link TopicManager}
+     * @throws IllegalArgumentException if the graph id is not valid
+     */
+    public static TopicManager get(String graphId) {
+        TopicManager tm = graphs.get(graphId);
+        if (tm != null) return tm;
+        if (!isValidGraphId(graphId)) {
+            throw new IllegalArgumentException("Invalid graph id: " + graphId);
+        }
+        return graphs.computeIfAbsent(graphId, TopicManager::new);
+    }
+
+    /**
+     * Returns the TopicManager of the given graph without creating it.
+     *
+     * @param graphId the graph id
+     * @return the graph's {@link TopicManager}, or null if there is no such graph
+     */
+    public static TopicManager find(String graphId) {
+        return graphId == null ? null : graphs.get(graphId);
+    }
+
+    /**
+     * Checks whether a string is a well-formed graph id. Only such ids are safe to echo back
+     * into a page or a URL.
+     *
+     * @param graphId the candidate id
+     * @return true if it consists of 1 to 64 letters, digits, '_' and '-'
+     */
+    public static boolean isValidGraphId(String graphId) {
+        return graphId != null && GRAPH_ID.matcher(graphId).matches();
+    }
+
+    /**
+     * Returns the ids of all hosted graphs.
+     *
+     * @return a sorted snapshot of the graph ids
+     */
+    public static Set<String> getGraphIds() {
+        return Collections.unmodifiableSet(new TreeSet<>(graphs.keySet()));
+    }
+
+    /**
+     * Makes {@code tm} the manager returned by {@link #get()} on the calling thread.
+     * Callers restore the previous binding when done:
+     * <pre>
+     * TopicManager prev = TopicManagerSingleton.bind(tm);
+     * try { ... } finally { TopicManagerSingleton.bind(prev); }
+     * </pre>
+     *
+     * @param tm the manager to bind, or null to fall back to the default graph
+     * @return the previously bound manager, or null
+     */
+    public static TopicManager bind(TopicManager tm) {
+        TopicManager prev = current.get();
+        if (tm == null) current.remove(); else current.set(tm);
+        return prev;
+    }
+
+    /**
+     * Resets the current topic manager by clearing all registered topics.
      */
     public static void reset() {
-        manager.topics.clear();
-        System.out.println("🔄 TopicManagerSingleton reset: cleared all topics.");
+        TopicManager tm = get();
+        tm.clear();
+        Log.info("🔄 Graph '" + tm.getGraphId() + "' reset: cleared all topics.");
+    }
+
+    /**
+     * Resets the given graph by clearing all its registered topics. The graph keeps existing.
+     *
+     * @param graphId the graph id
+     */
+    public static void reset(String graphId) {
+        TopicManager tm = find(graphId);
+        if (tm != null) {
+            tm.clear();
+            Log.info("🔄 Graph '" + graphId + "' reset: cleared all topics.");
+        }
+    }
+
+    /**
+     * Removes a graph and clears its topics. The default graph is only cleared.
+     *
+     * @param graphId the graph id
+     */
+    public static void remove(String graphId) {
+        TopicManager tm = DEFAULT_GRAPH.equals(graphId) ? find(graphId) : graphs.remove(graphId);
+        if (tm != null) {
+            tm.clear();
+        }
     }
 
     /**
      * Inner class representing the actual topic manager logic.
-     * Manages the list of topics and provides utilities to query or register them.
+     * <p>
+     * Topics are indexed by name in a concurrent hash map and by a dense integer id
+     * (assigned in registration order), so lookups are O(1) and safe to perform from
+     * HTTP threads and agent threads concurrently. Registration is serialized; lookups never lock.
+     * <p>
+     * Once {@link #getGraph()} has been called, the manager keeps that graph in sync with its
+     * topics: registrations, subscriptions and publisher changes are applied to it as they happen,
+     * so it never has to be rebuilt.
      */
     public static class TopicManager {
-        private List<Topic> topics = new ArrayList<>();
+        private final String graphId;
+        private final ConcurrentHashMap<String, Topic> topics = new ConcurrentHashMap<>();
+
+        /** Topics indexed by id; replaced (never mutated in place below {@code count}) when it grows. */
+        private volatile Topic[] byId = new Topic[16];
+
+        /** Number of registered topics; always written after the corresponding {@code byId} slot. */
+        private volatile int count;
 
         /**
-         * Returns all currently registered topics.
+         * Added to the topic versions so {@link #getVersion()} keeps increasing across registrations
+         * and {@link #clear()}.
+         */
+        private volatile long baseVersion;
+
+        /** The maintained graph, created on first request; guarded by its own monitor. */
+        private volatile Graph graph;
+
+        TopicManager(String graphId) {
+            this.graphId = graphId;
+        }
+
+        /**
+         * Returns the id of the graph this manager belongs to.
+         *
+         * @return the graph id
+         */
+        public String getGraphId() {
+            return graphId;
+        }
+
+        /**
+         * Returns all currently registered topics, in registration (id) order.
          *
-         * @return list of topics
+         * @return an unmodifiable snapshot of the registered topics
          */
         public List<Topic> getTopics() {
-            return topics;
+            int n = count;
+            return Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(byId, n)));
+        }
+
+        /**
+         * Returns the number of registered topics.
+         * Valid topic ids are {@code 0 .. size()-1}.
+         *
+         * @return the topic count
+         */
+        public int size() {
+            return count;
+        }
+
+        /**
+         * Returns a version that increases whenever any topic stores a new value or a topic is
+         * registered. A reader that sees the same version twice may assume no topic value changed
+         * in between.
+         * <p>
+         * The version is summed from the per-topic versions on demand, so publishers never
+         * contend on a shared counter.
+         *
+         * @return the manager-wide version
+         */
+        public long getVersion() {
+            long v = baseVersion;
+            Topic[] table = byId;
+            int n = count;
+            for (int i = 0; i < n; i++) {
+                v += table[i].getVersion();
+            }
+            return v;
+        }
+
+        /**
+         * Returns the graph of this manager's topics and agents, kept up to date incrementally.
+         * <p>
+         * The graph is built on the first call; afterwards every change to the topology is applied
+         * to the same instance. Topic nodes reference their live {@link Topic}, so values are read
+         * straight from {@link Topic#getLastMessage()}. Readers that iterate the graph must hold its
+         * monitor ({@code synchronized (graph) { ... }}) to see a consistent structure.
+         *
+         * @return the maintained graph
+         */
+        public Graph getGraph() {
+            Graph g = graph;
+            if (g != null) return g;
+            synchronized (this) {
+                if (graph == null) {
+                    g = new Graph();
+                    synchronized (g) {
+                        graph = g; // publish first, so changes racing with the build wait for it
+                        g.createFromTopics(getTopics());
+                    }
+                }
+                return graph;
+            }
+        }
+
+        /** Applies a subscription change of one of this manager's topics to the graph. */
+        void subscriptionChanged(Topic t, Agent a, boolean added) {
+            Graph g = graph;
+            if (g == null) return;
+            synchronized (g) {
+                if (t.getId() < 0 || getTopic(t.getId()) != t) return; // cleared in the meantime
+                if (added) g.addSubscription(t, a); else g.removeSubscription(t, a);
+            }
+        }
+
+        /** Applies a publisher change of one of this manager's topics to the graph. */
+        void publisherChanged(Topic t, Agent a, boolean added) {
+            Graph g = graph;
+            if (g == null) return;
+            synchronized (g) {
+                if (t.getId() < 0 || getTopic(t.getId()) != t) return;
+                if (added) g.addPublication(a, t); else g.removePublication(a, t);
+            }
         }
 
         /**
@@ -52,7 +281,7 @@ public class TopicManagerSingleton {
          * @return true if a topic with the given name exists
          */
         public boolean hasTopic(String name) {
-            return topics.stream().anyMatch(t -> t.name.equals(name));
+            return topics.containsKey(name);
         }
 
         /**
@@ -62,16 +291,97 @@ public class TopicManagerSingleton {
          * @return the topic object, or null if not found
          */
         public Topic getTopic(String name) {
-            return topics.stream().filter(t -> t.name.equals(name)).findFirst().orElse(null);
+            return topics.get(name);
+        }
+
+        /**
+         * Returns the topic with the given id, or null if no such topic is registered.
+         *
+         * @param id the dense topic id (see {@link Topic#getId()})
+         * @return the topic object, or null if the id is out of range
+         */
+        public Topic getTopic(int id) {
+            if (id < 0 || id >= count) return null;
+            return byId[id];
+        }
+
+        /**
+         * Returns the topic with the given name, creating and registering it if it does not exist yet.
+         * <p>
+         * Agents should call this once at construction and keep the returned handle,
+         * instead of looking the topic up by name on every callback.
+         *
+         * @param name the name of the topic
+         * @return the registered topic (never null)
+         */
+        public Topic getOrCreateTopic(String name) {
+            Topic t = topics.get(name);
+            if (t != null) return t;
+            synchronized (this) {
+                t = topics.get(name);
+                if (t == null) {
+                    t = new Topic(name);
+                    register(t);
+                }
+                return t;
+            }
         }
 
         /**
-         * Adds a new topic to the list of managed topics.
+         * Adds a new topic to the managed topics.
+         * If a topic with the same name is already registered, the call has no effect.
          *
          * @param t the topic to register
          */
-        public void addTopic(Topic t) {
-            topics.add(t);
+        public synchronized void addTopic(Topic t) {
+            if (!topics.containsKey(t.name)) {
+                register(t);
+            }
+        }
+
+        // Must be called while holding the monitor
+        private void register(Topic t) {
+            int id = count;
+            Topic[] table = byId;
+            if (id == table.length) {
+                table = Arrays.copyOf(table, id * 2);
+            }
+            table[id] = t;
+            t.setId(id);
+            byId = table;
+            topics.put(t.name, t);
+            baseVersion++;
+            count = id + 1;
+            t.setOwner(this);
+
+            Graph g = graph;
+            if (g != null) {
+                synchronized (g) {
+                    g.addTopic(t);
+                    for (Agent a : t.getSubscribers()) g.addSubscription(t, a);
+                    for (Agent a : t.getPublishers()) g.addPublication(a, t);
+                }
+            }
+        }
+
+        /**
+         * Removes all registered topics and restarts id assignment from zero.
+         */
+        synchronized void clear() {
+            baseVersion = getVersion() + 1;
+            for (Topic t : getTopics()) {
+                t.setOwner(null);
+            }
+            topics.clear();
+            byId = new Topic[16];
+            count = 0;
+
+            Graph g = graph;
+            if (g != null) {
+                synchronized (g) {
+                    g.clear();
+                }
+            }
         }
     }
 }
@@ -0,0 +1,68 @@
+package project_biu.graph;
+
+/**
+ * Tracks the message being delivered on the current thread, so that messages created by an
+ * agent while handling it inherit its trace (see {@link Message#traceId}).
+ * <p>
+ * Every place that hands messages to an agent ({@link Topic#publish(Message)},
+ * {@link ParallelAgent} and {@link PropagationEngine}) brackets the callback with
+ * {@link #enter(Message)} and {@link #exit(Message)}.
+ * <p>
+ * Tracing and latency recording can be switched off with {@code -Dproject_biu.trace=false}.
+ */
+final class TraceContext {
+
+    /** Whether traces are propagated and latencies recorded. */
+    static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("project_biu.trace"));
+
+    private static final ThreadLocal<Message> CURRENT = new ThreadLocal<>();
+
+    private TraceContext() {}
+
+    /**
+     * Returns the message being delivered on this thread.
+     *
+     * @return the current message, or {@code null} outside of a callback
+     */
+    static Message current() {
+        return ENABLED ? CURRENT.get() : null;
+    }
+
+    /**
+     * Makes {@code m} the current message.
+     *
+     * @param m the message about to be delivered
+     * @return the previous current message, to pass to {@link #exit(Message)}
+     */
+    static Message enter(Message m) {
+        if (!ENABLED) return null;
+        Message prev = CURRENT.get();
+        CURRENT.set(m);
+        return prev;
+    }
+
+    /**
+     * Restores the current message saved by {@link #enter(Message)}.
+     *
+     * @param prev the value returned by {@code enter}
+     */
+    static void exit(Message prev) {
+        if (ENABLED) CURRENT.set(prev);
+    }
+
+    /**
+     * Picks the message of a batch whose trace started first, so derived messages report the
+     * worst end-to-end latency among their inputs.
+     *
+     * @param msgs the batch
+     * @param n    the number of messages in the batch
+     * @return the message with the oldest origin
+     */
+    static Message oldest(Message[] msgs, int n) {
+        Message oldest = msgs[0];
+        for (int i = 1; i < n; i++) {
+            if (msgs[i].originNanos - oldest.originNanos < 0) oldest = msgs[i];
+        }
+        return oldest;
+    }
+}
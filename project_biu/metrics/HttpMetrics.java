@@ -0,0 +1,63 @@
+package project_biu.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide registry of per-route HTTP statistics.
+ * <p>
+ * Servers look up the {@link RequestStats} of a route once, when the route is registered, and
+ * record into it directly afterwards, so the registry itself is off the request path.
+ */
+public final class HttpMetrics {
+
+    /** Route key used for requests that matched no servlet. */
+    public static final String UNMATCHED = "unmatched";
+
+    /** Route key used for connections turned away because the server was saturated. */
+    public static final String REJECTED = "rejected";
+
+    private static final ConcurrentHashMap<String, RequestStats> routes = new ConcurrentHashMap<>();
+
+    private HttpMetrics() {}
+
+    /**
+     * Returns the statistics of a route, creating them on first use.
+     *
+     * @param method the HTTP method
+     * @param path   the registered path or path prefix
+     * @return the route's statistics
+     */
+    public static RequestStats forRoute(String method, String path) {
+        return routes.computeIfAbsent(method + " " + path, k -> new RequestStats());
+    }
+
+    /**
+     * Returns the statistics of requests that matched no route.
+     *
+     * @return the statistics for unmatched requests
+     */
+    public static RequestStats unmatched() {
+        return routes.computeIfAbsent(UNMATCHED, k -> new RequestStats());
+    }
+
+    /**
+     * Returns the statistics of connections rejected before their request was read.
+     *
+     * @return the statistics for rejected connections
+     */
+    public static RequestStats rejected() {
+        return routes.computeIfAbsent(REJECTED, k -> new RequestStats());
+    }
+
+    /**
+     * Returns all routes recorded so far.
+     *
+     * @return a sorted snapshot mapping {@code "METHOD path"} (or {@link #UNMATCHED}) to its statistics
+     */
+    public static Map<String, RequestStats> getRoutes() {
+        return Collections.unmodifiableMap(new TreeMap<>(routes));
+    }
+}
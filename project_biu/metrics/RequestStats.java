@@ -0,0 +1,53 @@
+package project_biu.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request counters and latencies of one HTTP route.
+ * <p>
+ * All fields are striped or atomic, so many server threads can record concurrently without locking.
+ */
+public class RequestStats {
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * Records one handled request.
+     *
+     * @param nanos  how long the request took
+     * @param failed true if handling threw an exception
+     */
+    public void record(long nanos, boolean failed) {
+        requests.increment();
+        if (failed) errors.increment();
+        latency.record(nanos);
+    }
+
+    /**
+     * Returns the number of handled requests.
+     *
+     * @return the request count
+     */
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    /**
+     * Returns the number of requests whose handling threw an exception.
+     *
+     * @return the error count
+     */
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    /**
+     * Returns the request latency histogram.
+     *
+     * @return the latencies, in nanoseconds
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+}
@@ -1,102 +1,384 @@
 package project_biu.server;
 
+import project_biu.metrics.HttpMetrics;
+import project_biu.metrics.RequestStats;
 import project_biu.servlets.Servlet;
+import project_biu.servlets.StreamingServlet;
 import project_biu.server.RequestParser.RequestInfo;
+import project_biu.util.Log;
 
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.HashMap;
-import java.util.Map;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A basic multiclient HTTP server implementation for serving servlets.
  * <p>
  * Supports mapping servlets to HTTP methods and paths. Handles GET/POST requests and delegates to matching servlet.
+ * <p>
+ * {@link #start()} binds the port and returns; a background thread accepts connections and hands
+ * each one to a pool of {@code maxClients} worker threads, so a slow client or servlet only holds
+ * up its own worker. Up to {@code queueCapacity} further connections wait for a free worker;
+ * beyond that a connection is answered with {@code 503 Service Unavailable} right away. Every
+ * connection gets a read timeout, so a client that stops sending cannot keep a worker forever.
+ * <p>
+ * Connections are persistent (HTTP/1.1 keep-alive): each servlet response is buffered and framed
+ * with a {@code Content-Length}, and the worker then reads the next request on the same
+ * connection. Pipelined requests are answered in order, and their responses are flushed together
+ * once no further request is buffered. A connection left idle for {@code keepAliveMillis} is
+ * closed; an idle one is also closed within {@value #KEEP_ALIVE_SLICE_MILLIS} ms once a
+ * connection is waiting in the queue (or, without a queue, once every worker is taken), so idle
+ * persistent connections never keep new clients waiting for long.
+ * Request counts, errors and latencies are recorded per registered route in {@link HttpMetrics}.
+ * Requests for a {@link StreamingServlet} run on a thread of their own, so an open stream does not
+ * hold up other clients; their connections are closed when the server is closed. At most
+ * {@code project_biu.http.streams} (default {@value #DEFAULT_MAX_STREAMS}) streams are open at once;
+ * further stream requests are answered with {@code 503}.
  * Designed to be used in the Advanced Programming exercise as the backend server.
  */
 public class MyHTTPServer implements HTTPServer {
-    private final Map<String, Map<String, Servlet>> servlets = new HashMap<>();
-    private boolean running = true;
+    /** Default number of connections that may wait for a worker, per worker. */
+    private static final int QUEUE_PER_CLIENT = 8;
+
+    /** Default socket read timeout. */
+    private static final int DEFAULT_READ_TIMEOUT_MILLIS = 10_000;
+
+    /** Default time an idle persistent connection waits for its next request. */
+    private static final int DEFAULT_KEEP_ALIVE_MILLIS = 5_000;
+
+    /** How often an idle persistent connection checks whether its worker is needed elsewhere. */
+    private static final int KEEP_ALIVE_SLICE_MILLIS = 50;
+
+    /** Default number of streams that may be open at once. */
+    private static final int DEFAULT_MAX_STREAMS = 64;
+
+    private static final byte[] SERVICE_UNAVAILABLE = ("HTTP/1.1 503 Service Unavailable\r\n"
+            + "Retry-After: 1\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes();
+
+    private final Routes routes = new Routes();
+    private final Set<Socket> streams = ConcurrentHashMap.newKeySet();
+    private final Semaphore streamPermits =
+            new Semaphore(Integer.getInteger("project_biu.http.streams", DEFAULT_MAX_STREAMS));
+    private volatile boolean running = true;
     private int port;
     private int maxClients;
+    private final int queueCapacity;
+    private final int readTimeoutMillis;
+    private final int keepAliveMillis;
     private ServerSocket serverSocket;
+    private ThreadPoolExecutor workers;
 
     /**
-     * Constructs the server on a specific port with a maximum number of clients.
+     * Constructs the server on a specific port with a maximum number of clients, a waiting queue
+     * of {@value #QUEUE_PER_CLIENT} connections per client, a 10 second read timeout and a 5 second
+     * keep-alive timeout.
      *
      * @param port the port to bind the server socket
-     * @param maxClients maximum number of client connections (not used for limiting in this version)
+     * @param maxClients maximum number of requests handled concurrently
      */
     public MyHTTPServer(int port, int maxClients) {
+        this(port, maxClients, maxClients * QUEUE_PER_CLIENT, DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Constructs the server on a specific port.
+     *
+     * @param port              the port to bind the server socket
+     * @param maxClients        maximum number of requests handled concurrently (worker threads)
+     * @param queueCapacity     number of accepted connections that may wait for a worker; further
+     *                          connections are rejected with {@code 503}
+     * @param readTimeoutMillis how long a read from a client may block; 0 waits forever
+     * @throws IllegalArgumentException if {@code maxClients} is less than 1 or another value is negative
+     */
+    public MyHTTPServer(int port, int maxClients, int queueCapacity, int readTimeoutMillis) {
+        this(port, maxClients, queueCapacity, readTimeoutMillis, DEFAULT_KEEP_ALIVE_MILLIS);
+    }
+
+    /**
+     * Constructs the server on a specific port.
+     *
+     * @param port              the port to bind the server socket
+     * @param maxClients        maximum number of requests handled concurrently (worker threads)
+     * @param queueCapacity     number of accepted connections that may wait for a worker; further
+     *                          connections are rejected with {@code 503}
+     * @param readTimeoutMillis how long a read from a client may block; 0 waits forever
+     * @param keepAliveMillis   how long a connection may stay idle between requests; 0 closes every
+     *                          connection after one response
+     * @throws IllegalArgumentException if {@code maxClients} is less than 1 or another value is negative
+     */
+    public MyHTTPServer(int port, int maxClients, int queueCapacity, int readTimeoutMillis, int keepAliveMillis) {
+        if (maxClients < 1) {
+            throw new IllegalArgumentException("maxClients must be at least 1: " + maxClients);
+        }
+        if (queueCapacity < 0 || readTimeoutMillis < 0 || keepAliveMillis < 0) {
+            throw new IllegalArgumentException("queueCapacity and timeouts must not be negative");
+        }
         this.port = port;
         this.maxClients = maxClients;
+        this.queueCapacity = queueCapacity;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.keepAliveMillis = keepAliveMillis;
     }
 
     /**
-     * Starts the HTTP server loop.
-     * Accepts connections and dispatches requests to the appropriate registered servlet.
+     * Binds the server socket and starts accepting connections on a background thread.
+     * Requests are dispatched to the appropriate registered servlet on the worker pool.
      */
     @Override
     public void start() {
-        try (ServerSocket server = new ServerSocket(port)) {
-            this.serverSocket = server;
-            System.out.println("✅ Server started on http://localhost:" + port);
+        try {
+            serverSocket = new ServerSocket(port);
+        } catch (IOException e) {
+            Log.error("Failed to start server: " + e.getMessage());
+            return;
+        }
+
+        AtomicInteger ids = new AtomicInteger();
+        workers = new ThreadPoolExecutor(maxClients, maxClients, 60, TimeUnit.SECONDS,
+                queueCapacity > 0 ? new ArrayBlockingQueue<>(queueCapacity) : new SynchronousQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "http-worker-" + ids.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        workers.allowCoreThreadTimeOut(true);
+
+        Thread acceptor = new Thread(this::acceptLoop, "http-acceptor");
+        acceptor.start();
+        Log.info("✅ Server started on http://localhost:" + port);
+    }
+
+    // Accepts connections until the server socket is closed
+    private void acceptLoop() {
+        try (ServerSocket server = serverSocket) {
             while (running) {
                 try {
                     Socket client = server.accept();
-                    handleClient(client);
+                    dispatch(client);
                 } catch (IOException e) {
                     if (running) {
-                        System.err.println("Error handling client: " + e.getMessage());
+                        Log.error("Error handling client: " + e.getMessage());
                     }
                 }
             }
         } catch (IOException e) {
-            System.err.println("Failed to start server: " + e.getMessage());
+            Log.error("Error closing server socket: " + e.getMessage());
         }
     }
 
+    // Hands a connection to the worker pool, or answers 503 if the pool and its queue are full
+    private void dispatch(Socket client) {
+        try {
+            workers.execute(() -> handleClient(client));
+        } catch (RejectedExecutionException e) {
+            long start = System.nanoTime();
+            try {
+                client.setSoTimeout(readTimeoutMillis);
+                client.getOutputStream().write(SERVICE_UNAVAILABLE);
+            } catch (IOException ignored) {
+                // the client gets no answer
+            } finally {
+                closeQuietly(client);
+                HttpMetrics.rejected().record(System.nanoTime() - start, true);
+            }
+            if (Log.DEBUG) Log.debug("Rejected connection: " + maxClients + " workers busy, queue full");
+        }
+    }
+
+    /** What happens to a connection after a request. */
+    private enum Outcome { KEEP_ALIVE, CLOSE, STREAMING }
+
     /**
-     * Handles a single client request by parsing it and delegating to the appropriate servlet.
+     * Serves the requests of a client connection until it is closed, times out or is handed to
+     * a streaming servlet.
      *
      * @param client the accepted client socket
      */
     private void handleClient(Socket client) {
-        try (
-                BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
-                OutputStream out = client.getOutputStream()
-        ) {
+        Outcome outcome = Outcome.CLOSE;
+        try {
+            client.setSoTimeout(readTimeoutMillis);
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(client.getInputStream(), StandardCharsets.ISO_8859_1));
+            OutputStream out = new BufferedOutputStream(client.getOutputStream());
+            do {
+                outcome = handleRequest(client, in, out);
+            } while (outcome == Outcome.KEEP_ALIVE && running && awaitRequest(client, in));
+        } catch (IOException e) {
+            Log.error("Client handling failed: " + e.getMessage());
+        } finally {
+            if (outcome != Outcome.STREAMING) {
+                closeQuietly(client);
+            }
+        }
+    }
+
+    /**
+     * Handles a single client request by parsing it and delegating to the appropriate servlet.
+     * The servlet's response is buffered so it can be framed for a persistent connection.
+     */
+    private Outcome handleRequest(Socket client, BufferedReader in, OutputStream out) {
+        RequestStats route = null;
+        long start = 0;
+        boolean failed = false;
+        Outcome outcome = Outcome.CLOSE;
+        try {
             RequestInfo request = RequestParser.parseRequest(in);
-            String method = request.getHttpCommand();
+            start = System.nanoTime();
             String uri = request.getUri();
+            Routes.Route match = routes.match(request.getHttpCommand(), uri);
 
-            Map<String, Servlet> methodMap = servlets.get(method);
-            Servlet servlet = null;
-
-            if (methodMap != null) {
-                // Try exact match first
-                servlet = methodMap.get(uri);
-
-                // Fallback to longest matching prefix
-                if (servlet == null) {
-                    for (String prefix : methodMap.keySet()) {
-                        if (uri.startsWith(prefix)) {
-                            servlet = methodMap.get(prefix);
-                            break;
-                        }
-                    }
+            if (match != null && match.servlet instanceof StreamingServlet) {
+                if (!streamPermits.tryAcquire()) {
+                    out.write(SERVICE_UNAVAILABLE);
+                    out.flush();
+                    HttpMetrics.rejected().record(System.nanoTime() - start, true);
+                    if (Log.DEBUG) Log.debug("Rejected stream " + uri + ": too many open streams");
+                    return Outcome.CLOSE;
                 }
+                out.flush(); // responses to earlier pipelined requests
+                stream(client, (StreamingServlet) match.servlet, request, match.stats, buffered(in));
+                return Outcome.STREAMING;
             }
 
-            if (servlet != null) {
-                servlet.handle(request, out);
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            if (match != null) {
+                route = match.stats;
+                match.servlet.handle(request, response);
             } else {
-                out.write(("HTTP/1.1 404 Not Found\r\n\r\nUnknown path: " + uri).getBytes());
+                route = HttpMetrics.unmatched();
+                response.write(("HTTP/1.1 404 Not Found\r\n\r\nUnknown path: " + uri).getBytes());
             }
 
+            byte[] framed = keepAliveMillis > 0 && ResponseFraming.keepAlive(request)
+                    ? ResponseFraming.frame(response.toByteArray()) : null;
+            if (framed != null) {
+                out.write(framed);
+                outcome = Outcome.KEEP_ALIVE;
+            } else {
+                response.writeTo(out);
+            }
+            if (outcome == Outcome.CLOSE || !in.ready()) {
+                out.flush();
+            }
+
+        } catch (SocketTimeoutException e) {
+            failed = true;
+            if (Log.DEBUG) Log.debug("Client read timed out after " + readTimeoutMillis + " ms");
         } catch (Exception e) {
-            System.err.println("Client handling failed: " + e.getMessage());
+            failed = true;
+            Log.error("Client handling failed: " + e.getMessage());
+        } finally {
+            if (route != null) {
+                route.record(System.nanoTime() - start, failed);
+            }
+        }
+        return outcome;
+    }
+
+    /**
+     * Waits up to the keep-alive timeout for the next request on a persistent connection. The wait
+     * is cut into slices of {@value #KEEP_ALIVE_SLICE_MILLIS} ms, and the connection gives up its
+     * worker as soon as another connection needs one.
+     *
+     * @return true if a request has started arriving, false if the connection should be closed
+     */
+    private boolean awaitRequest(Socket client, BufferedReader in) {
+        long deadline = System.currentTimeMillis() + keepAliveMillis;
+        try {
+            if (in.ready()) return true; // pipelined
+            client.setSoTimeout(Math.min(keepAliveMillis, KEEP_ALIVE_SLICE_MILLIS));
+            in.mark(1);
+            while (true) {
+                if (workersNeeded()) return false;
+                try {
+                    if (in.read() < 0) return false;
+                    break;
+                } catch (SocketTimeoutException e) {
+                    if (System.currentTimeMillis() >= deadline) return false;
+                }
+            }
+            in.reset();
+            client.setSoTimeout(readTimeoutMillis);
+            return true;
+        } catch (IOException e) {
+            return false; // the client went away
+        }
+    }
+
+    // Whether connections wait for a worker; without a queue, whether every worker is taken
+    private boolean workersNeeded() {
+        return queueCapacity > 0 ? !workers.getQueue().isEmpty() : workers.getActiveCount() >= maxClients;
+    }
+
+    /**
+     * Takes the bytes the reader has already read past the request. The reader decodes
+     * ISO-8859-1, so every char maps back to exactly one byte.
+     */
+    private static byte[] buffered(BufferedReader in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        char[] chars = new char[1024];
+        while (in.ready()) {
+            int n = in.read(chars);
+            if (n < 0) break;
+            for (int i = 0; i < n; i++) bytes.write(chars[i]);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Runs a streaming servlet on a new daemon thread, which closes the connection and returns its
+     * stream permit when the stream ends. The servlet reads the bytes the reader had already
+     * buffered before the rest of the connection. The request is recorded once the stream is over.
+     */
+    private void stream(Socket client, StreamingServlet servlet, RequestInfo request, RequestStats route,
+                        byte[] leftover) {
+        streams.add(client);
+        Thread t = new Thread(() -> {
+            long start = System.nanoTime();
+            boolean failed = false;
+            try {
+                client.setSoTimeout(0); // streams may stay idle for long periods
+                InputStream fromClient = leftover.length == 0 ? client.getInputStream()
+                        : new SequenceInputStream(new ByteArrayInputStream(leftover), client.getInputStream());
+                servlet.stream(request, fromClient, client.getOutputStream());
+            } catch (Exception e) {
+                failed = running;
+                if (running) Log.error("Stream failed: " + e.getMessage());
+            } finally {
+                route.record(System.nanoTime() - start, failed);
+                streams.remove(client);
+                closeQuietly(client);
+                streamPermits.release();
+            }
+        }, "stream-" + request.getUri());
+        t.setDaemon(true);
+        try {
+            t.start();
+        } catch (OutOfMemoryError e) { // no thread left for the stream
+            Log.error("Stream failed: " + e.getMessage());
+            streams.remove(client);
+            streamPermits.release();
+            closeQuietly(client);
+        }
+    }
+
+    private static void closeQuietly(Socket client) {
+        try {
+            client.close();
+        } catch (IOException ignored) {
+            // nothing left to do with this connection
         }
     }
 
@@ -109,7 +391,21 @@ public class MyHTTPServer implements HTTPServer {
         try {
             if (serverSocket != null) serverSocket.close();
         } catch (IOException e) {
-            System.err.println("Error closing server socket: " + e.getMessage());
+            Log.error("Error closing server socket: " + e.getMessage());
+        }
+        for (Socket s : streams) {
+            closeQuietly(s);
+        }
+        if (workers != null) {
+            workers.shutdown();
+            try {
+                if (!workers.awaitTermination(5, TimeUnit.SECONDS)) {
+                    workers.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                workers.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
@@ -122,7 +418,6 @@ public class MyHTTPServer implements HTTPServer {
      */
     @Override
     public void addServlet(String method, String uri, Servlet servlet) {
-        servlets.putIfAbsent(method, new HashMap<>());
-        servlets.get(method).put(uri, servlet);
+        routes.add(method, uri, servlet);
     }
 }
@@ -0,0 +1,656 @@
+package project_biu.server;
+
+import project_biu.metrics.HttpMetrics;
+import project_biu.metrics.RequestStats;
+import project_biu.servlets.Servlet;
+import project_biu.servlets.StreamingServlet;
+import project_biu.server.RequestParser.RequestInfo;
+import project_biu.util.Log;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An HTTP server that multiplexes all connections over a few {@link Selector} event-loop threads.
+ * <p>
+ * The event loops accept connections, read requests without blocking into a reusable buffer per
+ * loop, and write responses; an idle connection costs a selector registration and a small buffer
+ * instead of a thread. Once a request is complete (headers plus {@code Content-Length} bytes of
+ * body, at most {@value #MAX_REQUEST} bytes) it is parsed and handed to the registered servlet on
+ * a pool of worker threads, the same way {@link MyHTTPServer} runs it; the servlet's response is
+ * buffered, framed for a persistent connection where the client allows it, and written back by
+ * the event loop. The connection then waits for its next request without holding a worker; a
+ * pipelined request already read is dispatched as soon as the previous response is written, so
+ * responses keep the order of the requests. When the pool and its queue are full the request is
+ * answered with {@code 503 Service Unavailable}.
+ * <p>
+ * A {@link StreamingServlet} that can {@linkplain StreamingServlet#open open} its stream without
+ * a thread (such as Server-Sent Events) writes through a non-blocking stream that the event loop
+ * drains, so thousands of open streams need no thread each. Other streaming servlets (such as
+ * WebSockets) get the connection switched to blocking mode and a thread of their own; at most
+ * {@code project_biu.http.streams} (default {@value #DEFAULT_MAX_STREAMS}) of these run at once,
+ * and further ones are answered with {@code 503}.
+ * <p>
+ * Connections that send nothing for {@code idleTimeoutMillis} while no request of theirs is being
+ * handled are closed, whether idle between requests or stuck in an incomplete one. Request counts,
+ * errors and latencies are recorded per route in {@link HttpMetrics}.
+ */
+public class NioHTTPServer implements HTTPServer {
+    /** Largest accepted request, headers and body, in bytes. */
+    public static final int MAX_REQUEST = 1 << 20;
+
+    /** Largest amount of unsent output a non-blocking stream may queue before it fails. */
+    private static final int MAX_PENDING_OUTPUT = 1 << 20;
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int QUEUE_PER_WORKER = 8;
+    private static final int DEFAULT_IDLE_TIMEOUT_MILLIS = 10_000;
+    private static final long IDLE_CHECK_MILLIS = 1000;
+
+    /** Default number of streams that may run on threads of their own at once. */
+    private static final int DEFAULT_MAX_STREAMS = 64;
+
+    private static final byte[] SERVICE_UNAVAILABLE = ("HTTP/1.1 503 Service Unavailable\r\n"
+            + "Retry-After: 1\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes();
+    private static final byte[] PAYLOAD_TOO_LARGE = ("HTTP/1.1 413 Payload Too Large\r\n"
+            + "Content-Length: 0\r\nConnection: close\r\n\r\n").getBytes();
+
+    private final Routes routes = new Routes();
+    private final Set<Socket> streams = ConcurrentHashMap.newKeySet();
+    private final Semaphore streamPermits =
+            new Semaphore(Integer.getInteger("project_biu.http.streams", DEFAULT_MAX_STREAMS));
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private volatile boolean running = true;
+    private final int port;
+    private final int eventLoops;
+    private final int workerThreads;
+    private final int queueCapacity;
+    private final int idleTimeoutMillis;
+    private ServerSocketChannel serverChannel;
+    private EventLoop[] loops;
+    private ThreadPoolExecutor workers;
+
+    /**
+     * Constructs the server with one event loop per two processors, a waiting queue of
+     * {@value #QUEUE_PER_WORKER} requests per worker and a 10 second idle timeout.
+     *
+     * @param port          the port to bind the server socket
+     * @param workerThreads maximum number of requests handled concurrently
+     */
+    public NioHTTPServer(int port, int workerThreads) {
+        this(port, Math.max(1, Runtime.getRuntime().availableProcessors() / 2), workerThreads,
+                workerThreads * QUEUE_PER_WORKER, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Constructs the server on a specific port.
+     *
+     * @param port              the port to bind the server socket
+     * @param eventLoops        number of selector threads sharing the connections
+     * @param workerThreads     maximum number of requests handled concurrently
+     * @param queueCapacity     number of complete requests that may wait for a worker; further
+     *                          requests are rejected with {@code 503}
+     * @param idleTimeoutMillis how long a connection may stay idle between or within requests; 0 waits forever
+     * @throws IllegalArgumentException if {@code eventLoops} or {@code workerThreads} is less than 1
+     *                                  or another value is negative
+     */
+    public NioHTTPServer(int port, int eventLoops, int workerThreads, int queueCapacity, int idleTimeoutMillis) {
+        if (eventLoops < 1 || workerThreads < 1) {
+            throw new IllegalArgumentException("eventLoops and workerThreads must be at least 1");
+        }
+        if (queueCapacity < 0 || idleTimeoutMillis < 0) {
+            throw new IllegalArgumentException("queueCapacity and idleTimeoutMillis must not be negative");
+        }
+        this.port = port;
+        this.eventLoops = eventLoops;
+        this.workerThreads = workerThreads;
+        this.queueCapacity = queueCapacity;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Binds the server socket and starts the event loops; returns right away.
+     */
+    @Override
+    public void start() {
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port), 1024);
+            serverChannel.configureBlocking(false);
+            loops = new EventLoop[eventLoops];
+            for (int i = 0; i < eventLoops; i++) {
+                loops[i] = new EventLoop();
+            }
+            serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            Log.error("Failed to start server: " + e.getMessage());
+            return;
+        }
+
+        AtomicInteger ids = new AtomicInteger();
+        workers = new ThreadPoolExecutor(workerThreads, workerThreads, 60, TimeUnit.SECONDS,
+                queueCapacity > 0 ? new ArrayBlockingQueue<>(queueCapacity) : new SynchronousQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "http-worker-" + ids.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        workers.allowCoreThreadTimeOut(true);
+
+        for (int i = 0; i < eventLoops; i++) {
+            Thread t = new Thread(loops[i], "nio-loop-" + (i + 1));
+            loops[i].thread = t;
+            t.start();
+        }
+        Log.info("✅ Server started on http://localhost:" + port);
+    }
+
+    /**
+     * One selector thread and the connections registered with it. Other threads talk to a loop
+     * only through {@link #execute(Runnable)}.
+     */
+    private final class EventLoop implements Runnable {
+        final Selector selector;
+        final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        Thread thread;
+        long lastIdleCheck = System.currentTimeMillis();
+
+        EventLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        /** Runs a task on this loop's thread. */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(IDLE_CHECK_MILLIS);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+                        Connection c = (Connection) key.attachment();
+                        if (key.isReadable()) c.read();
+                        if (key.isValid() && key.isWritable()) c.writeOut();
+                    }
+                    closeIdle();
+                }
+            } catch (Exception e) {
+                if (running) Log.error("Event loop failed: " + e.getMessage(), e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        ((Connection) key.attachment()).close();
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                    // shutting down
+                }
+            }
+        }
+
+        // Accepts all pending connections and spreads them over the loops
+        private void accept() throws IOException {
+            SocketChannel ch;
+            while ((ch = serverChannel.accept()) != null) {
+                ch.configureBlocking(false);
+                ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                EventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+                SocketChannel accepted = ch;
+                if (loop == this) {
+                    register(accepted);
+                } else {
+                    loop.execute(() -> loop.register(accepted));
+                }
+            }
+        }
+
+        private void register(SocketChannel ch) {
+            try {
+                Connection c = new Connection(this, ch);
+                c.key = ch.register(selector, SelectionKey.OP_READ, c);
+            } catch (IOException e) {
+                closeQuietly(ch);
+            }
+        }
+
+        private void closeIdle() {
+            long now = System.currentTimeMillis();
+            if (idleTimeoutMillis == 0 || now - lastIdleCheck < IDLE_CHECK_MILLIS) return;
+            lastIdleCheck = now;
+            for (SelectionKey key : selector.keys()) {
+                if (!(key.attachment() instanceof Connection)) continue;
+                Connection c = (Connection) key.attachment();
+                if (!c.inFlight && !c.streaming && now - c.lastActive > idleTimeoutMillis) {
+                    if (Log.DEBUG) Log.debug("Client idle for more than " + idleTimeoutMillis + " ms");
+                    c.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * The state of one client connection. Fields other than {@link #closed} and the output queue
+     * are only touched on the owning loop's thread.
+     */
+    private final class Connection {
+        final EventLoop loop;
+        final SocketChannel ch;
+        SelectionKey key;
+
+        byte[] in = new byte[1024];
+        int inLength;
+        long lastActive = System.currentTimeMillis();
+        boolean inFlight;
+        boolean streaming;
+        boolean closeAfterWrite;
+        boolean resumeAfterWrite;
+        volatile boolean closed;
+
+        final Queue<ByteBuffer> out = new ConcurrentLinkedQueue<>();
+        final AtomicInteger outBytes = new AtomicInteger();
+        final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+        Connection(EventLoop loop, SocketChannel ch) {
+            this.loop = loop;
+            this.ch = ch;
+        }
+
+        void read() {
+            ByteBuffer buf = loop.readBuffer;
+            buf.clear();
+            int n;
+            try {
+                n = ch.read(buf);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (n < 0) {
+                close();
+                return;
+            }
+            if (n == 0 || streaming) return; // input after a stream started is ignored
+            lastActive = System.currentTimeMillis();
+
+            if (inLength + n > in.length) {
+                in = Arrays.copyOf(in, Math.max(inLength + n, Math.min(2 * in.length, MAX_REQUEST + READ_BUFFER_SIZE)));
+            }
+            buf.flip();
+            buf.get(in, inLength, n);
+            inLength += n;
+            dispatch();
+        }
+
+        // Hands a complete request to the workers
+        private void dispatch() {
+            int headEnd = headEnd(in, inLength);
+            if (headEnd < 0) {
+                if (inLength > MAX_REQUEST) refuse(PAYLOAD_TOO_LARGE);
+                return;
+            }
+            long total = headEnd + contentLength(in, headEnd);
+            if (total > MAX_REQUEST) {
+                refuse(PAYLOAD_TOO_LARGE);
+                return;
+            }
+            if (inLength < total) return;
+
+            byte[] request = Arrays.copyOf(in, (int) total);
+            inLength -= (int) total;
+            System.arraycopy(in, (int) total, in, 0, inLength);
+            inFlight = true;
+            key.interestOps(0);
+            try {
+                workers.execute(() -> process(request));
+            } catch (RejectedExecutionException e) {
+                HttpMetrics.rejected().record(0, true);
+                if (Log.DEBUG) Log.debug("Rejected request: " + workerThreads + " workers busy, queue full");
+                refuse(SERVICE_UNAVAILABLE);
+            }
+        }
+
+        private void refuse(byte[] response) {
+            inLength = 0;
+            out.add(ByteBuffer.wrap(response));
+            outBytes.addAndGet(response.length);
+            closeAfterWrite = true;
+            writeOut();
+        }
+
+        // Runs on a worker thread
+        private void process(byte[] request) {
+            RequestStats route = null;
+            long start = 0;
+            boolean failed = false;
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            byte[] framed = null;
+            try {
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(new ByteArrayInputStream(request), StandardCharsets.ISO_8859_1));
+                RequestInfo ri = RequestParser.parseRequest(reader);
+                start = System.nanoTime();
+                String uri = ri.getUri();
+                Routes.Route match = routes.match(ri.getHttpCommand(), uri);
+
+                if (match != null && match.servlet instanceof StreamingServlet) {
+                    startStream((StreamingServlet) match.servlet, ri, match.stats);
+                    return;
+                } else if (match != null) {
+                    route = match.stats;
+                    match.servlet.handle(ri, response);
+                } else {
+                    route = HttpMetrics.unmatched();
+                    response.write(("HTTP/1.1 404 Not Found\r\n\r\nUnknown path: " + uri).getBytes());
+                }
+                if (ResponseFraming.keepAlive(ri)) {
+                    framed = ResponseFraming.frame(response.toByteArray());
+                }
+            } catch (Exception e) {
+                failed = true;
+                Log.error("Client handling failed: " + e.getMessage());
+            } finally {
+                if (route != null) {
+                    route.record(System.nanoTime() - start, failed);
+                }
+            }
+            if (framed != null) {
+                send(framed, true);
+            } else {
+                send(response.toByteArray(), false);
+            }
+        }
+
+        // Queues a complete response; once it is written the connection reads the next request or is closed
+        private void send(byte[] response, boolean keepAlive) {
+            if (response.length > 0) {
+                out.add(ByteBuffer.wrap(response));
+                outBytes.addAndGet(response.length);
+            }
+            loop.execute(() -> {
+                if (keepAlive) {
+                    resumeAfterWrite = true;
+                } else {
+                    closeAfterWrite = true;
+                }
+                writeOut();
+            });
+        }
+
+        // Runs on a worker thread, right after the request was parsed
+        private void startStream(StreamingServlet servlet, RequestInfo ri, RequestStats route) {
+            long start = System.nanoTime();
+            AtomicBoolean ended = new AtomicBoolean();
+            Runnable onClose = () -> {
+                if (!ended.compareAndSet(false, true)) return;
+                route.record(System.nanoTime() - start, false);
+                loop.execute(() -> {
+                    closeAfterWrite = true;
+                    writeOut();
+                });
+            };
+            loop.execute(() -> streaming = true);
+            try {
+                if (servlet.open(ri, new ChannelOutputStream(this), onClose)) {
+                    // Watch for the client going away; a closed connection fails the stream's next write
+                    loop.execute(() -> {
+                        if (key.isValid()) key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                    });
+                    return;
+                }
+            } catch (IOException e) {
+                if (running) Log.error("Stream failed: " + e.getMessage());
+                onClose.run();
+                return;
+            }
+            loop.execute(() -> handOff(servlet, ri, route));
+        }
+
+        // Switches the connection to blocking mode and streams it on a thread of its own,
+        // or answers 503 when too many streams are running
+        private void handOff(StreamingServlet servlet, RequestInfo ri, RequestStats route) {
+            if (!streamPermits.tryAcquire()) {
+                HttpMetrics.rejected().record(0, true);
+                if (Log.DEBUG) Log.debug("Rejected stream " + ri.getUri() + ": too many open streams");
+                refuse(SERVICE_UNAVAILABLE);
+                return;
+            }
+            Socket socket = ch.socket();
+            byte[] leftover = Arrays.copyOf(in, inLength);
+            try {
+                key.cancel();
+                loop.selector.selectNow(); // completes the deregistration
+                ch.configureBlocking(true);
+            } catch (IOException e) {
+                streamPermits.release();
+                close();
+                return;
+            }
+            streams.add(socket);
+            Thread t = new Thread(() -> {
+                long start = System.nanoTime();
+                boolean failed = false;
+                try {
+                    InputStream fromClient = new SequenceInputStream(
+                            new ByteArrayInputStream(leftover), socket.getInputStream());
+                    servlet.stream(ri, fromClient, socket.getOutputStream());
+                } catch (Exception e) {
+                    failed = running;
+                    if (running) Log.error("Stream failed: " + e.getMessage());
+                } finally {
+                    route.record(System.nanoTime() - start, failed);
+                    streams.remove(socket);
+                    closeQuietly(ch);
+                    streamPermits.release();
+                }
+            }, "stream-" + ri.getUri());
+            t.setDaemon(true);
+            try {
+                t.start();
+            } catch (OutOfMemoryError e) { // no thread left for the stream
+                Log.error("Stream failed: " + e.getMessage());
+                streams.remove(socket);
+                streamPermits.release();
+                closeQuietly(ch);
+            }
+        }
+
+        // Writes queued output until the socket's buffer is full; runs on the loop's thread
+        void writeOut() {
+            if (closed || !key.isValid()) return;
+            try {
+                ByteBuffer buf;
+                while ((buf = out.peek()) != null) {
+                    int n = ch.write(buf);
+                    outBytes.addAndGet(-n);
+                    if (n > 0) lastActive = System.currentTimeMillis();
+                    if (buf.hasRemaining()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    out.poll();
+                }
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                if (closeAfterWrite) {
+                    close();
+                } else if (resumeAfterWrite) {
+                    resumeAfterWrite = false;
+                    inFlight = false;
+                    lastActive = System.currentTimeMillis();
+                    key.interestOps(SelectionKey.OP_READ);
+                    dispatch(); // a pipelined request may be complete already
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            key.cancel();
+            closeQuietly(ch);
+            out.clear();
+        }
+    }
+
+    /**
+     * The output of a stream started with {@link StreamingServlet#open}: writes are queued on the
+     * connection and {@link #flush()} asks its event loop to send them. Writing fails once the
+     * connection is closed or more than {@value #MAX_PENDING_OUTPUT} bytes are waiting.
+     */
+    private static final class ChannelOutputStream extends OutputStream {
+        private final Connection c;
+
+        ChannelOutputStream(Connection c) {
+            this.c = c;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (c.closed) throw new IOException("Connection closed");
+            if (c.outBytes.get() + len > MAX_PENDING_OUTPUT) {
+                throw new IOException("Client too slow: " + c.outBytes.get() + " bytes not sent");
+            }
+            c.out.add(ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len)));
+            c.outBytes.addAndGet(len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (c.closed) throw new IOException("Connection closed");
+            if (c.flushScheduled.compareAndSet(false, true)) {
+                c.loop.execute(() -> {
+                    c.flushScheduled.set(false);
+                    c.writeOut();
+                });
+            }
+        }
+    }
+
+    // Position just after the empty line that ends the request head in data[0, length), or -1.
+    // Lines may end with \r\n or a bare \n, as RequestParser accepts both.
+    private static int headEnd(byte[] data, int length) {
+        for (int i = 0; i < length - 1; i++) {
+            if (data[i] != '\n') continue;
+            if (data[i + 1] == '\n') return i + 2;
+            if (data[i + 1] == '\r' && i + 2 < length && data[i + 2] == '\n') return i + 3;
+        }
+        return -1;
+    }
+
+    // The Content-Length header of the request head in data[0, headEnd), or 0
+    private static long contentLength(byte[] data, int headEnd) {
+        String head = new String(data, 0, headEnd, StandardCharsets.ISO_8859_1);
+        for (String line : head.split("\r?\n")) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+                try {
+                    return Math.max(0, Long.parseLong(line.substring(colon + 1).trim()));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static void closeQuietly(Closeable c) {
+        try {
+            c.close();
+        } catch (IOException ignored) {
+            // nothing left to do with this connection
+        }
+    }
+
+    /**
+     * Stops accepting connections, closes every open connection and shuts down the threads.
+     */
+    @Override
+    public void close() {
+        running = false;
+        if (serverChannel != null) closeQuietly(serverChannel);
+        if (loops != null) {
+            for (EventLoop loop : loops) {
+                loop.selector.wakeup();
+            }
+            for (EventLoop loop : loops) {
+                try {
+                    if (loop.thread != null) loop.thread.join(5000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        for (Socket s : streams) {
+            closeQuietly(s);
+        }
+        if (workers != null) {
+            workers.shutdown();
+            try {
+                if (!workers.awaitTermination(5, TimeUnit.SECONDS)) {
+                    workers.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                workers.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Registers a servlet for a specific HTTP method and URI prefix.
+     *
+     * @param method  the HTTP method (e.g., "GET", "POST")
+     * @param uri     the URI or URI prefix to match
+     * @param servlet the servlet to handle matching requests
+     */
+    @Override
+    public void addServlet(String method, String uri, Servlet servlet) {
+        routes.add(method, uri, servlet);
+    }
+}
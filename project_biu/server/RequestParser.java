@@ -21,6 +21,7 @@ public class RequestParser {
      */
     public static class RequestInfo {
         private final String httpCommand;
+        private final String httpVersion;
         private final String uri;
         private final String[] uriSegments;
         private final Map<String, String> parameters;
@@ -41,7 +42,26 @@ public class RequestParser {
                            Map<String, String> parameters,
                            Map<String, String> headers,
                            byte[] content) {
+            this(httpCommand, "HTTP/1.1", uri, uriSegments, parameters, headers, content);
+        }
+
+        /**
+         * Constructs a new RequestInfo object for a request of the given protocol version.
+         *
+         * @param httpCommand HTTP method (e.g., GET or POST)
+         * @param httpVersion protocol version from the request line (e.g., HTTP/1.1)
+         * @param uri raw request URI (possibly including query string)
+         * @param uriSegments URI path segments split by "/"
+         * @param parameters parsed parameters from query string and form body
+         * @param headers HTTP headers
+         * @param content raw request body content as byte array
+         */
+        public RequestInfo(String httpCommand, String httpVersion, String uri, String[] uriSegments,
+                           Map<String, String> parameters,
+                           Map<String, String> headers,
+                           byte[] content) {
             this.httpCommand = httpCommand;
+            this.httpVersion = httpVersion;
             this.uri = uri;
             this.uriSegments = uriSegments;
             this.parameters = parameters;
@@ -52,6 +72,9 @@ public class RequestParser {
         /** @return HTTP method (e.g., GET, POST) */
         public String getHttpCommand() { return httpCommand; }
 
+        /** @return protocol version from the request line (e.g., HTTP/1.1) */
+        public String getHttpVersion() { return httpVersion; }
+
         /** @return raw URI from the request */
         public String getUri() { return uri; }
 
@@ -66,12 +89,28 @@ public class RequestParser {
 
         /** @return raw body content as byte array */
         public byte[] getContent() { return content; }
+
+        /**
+         * Looks up a header by name, ignoring case.
+         *
+         * @param name the header name
+         * @return the header value, or null if the request has no such header
+         */
+        public String getHeader(String name) {
+            String value = headers.get(name);
+            if (value != null) return value;
+            for (Map.Entry<String, String> e : headers.entrySet()) {
+                if (e.getKey().equalsIgnoreCase(name)) return e.getValue();
+            }
+            return null;
+        }
     }
 
     /**
      * Parses a raw HTTP request from the input stream.
      *
-     * @param in the input reader connected to the socket
+     * @param in the input reader connected to the socket; it must decode ISO-8859-1, so that each
+     *           char is one byte and the body is read by its {@code Content-Length} in bytes
      * @return a {@link RequestInfo} object representing the parsed request
      * @throws IOException if the request is malformed or reading fails
      */
@@ -82,6 +121,7 @@ public class RequestParser {
         StringTokenizer tokenizer = new StringTokenizer(requestLine);
         String method = tokenizer.nextToken();
         String fullUri = tokenizer.nextToken();
+        String version = tokenizer.hasMoreTokens() ? tokenizer.nextToken() : "HTTP/1.0";
         String uri = fullUri.split("\\?")[0];
 
         Map<String, String> params = new HashMap<>();
@@ -112,11 +152,17 @@ public class RequestParser {
             }
         }
 
-        // Read body
+        // Read body; the whole of it, so that a following request on the same connection starts in place.
+        // Content-Length counts bytes, and the reader yields one char per byte (ISO-8859-1).
         char[] bodyChars = new char[contentLength];
-        int read = in.read(bodyChars);
-        String body = (read > 0) ? new String(bodyChars, 0, read) : "";
-        byte[] content = body.getBytes(StandardCharsets.UTF_8);
+        int read = 0;
+        while (read < contentLength) {
+            int n = in.read(bodyChars, read, contentLength - read);
+            if (n < 0) break;
+            read += n;
+        }
+        byte[] content = new String(bodyChars, 0, read).getBytes(StandardCharsets.ISO_8859_1);
+        String body = new String(content, StandardCharsets.UTF_8);
 
         // ✅ Handle x-www-form-urlencoded POST body
         String contentType = headers.getOrDefault("Content-Type", "");
@@ -133,6 +179,6 @@ public class RequestParser {
 
         String[] uriSegments = uri.length() > 1 ? uri.substring(1).split("/") : new String[0];
 
-        return new RequestInfo(method, uri, uriSegments, params, headers, content);
+        return new RequestInfo(method, version, uri, uriSegments, params, headers, content);
     }
 }
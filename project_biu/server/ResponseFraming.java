@@ -0,0 +1,107 @@
+package project_biu.server;
+
+import project_biu.server.RequestParser.RequestInfo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Decides whether a connection stays open after a response, and frames buffered servlet
+ * responses so the client can tell where they end.
+ * <p>
+ * Servlets write a raw response, often without {@code Content-Length} and with {@code \n} line
+ * ends, which only works when the connection is closed after it. The servers buffer the response
+ * and let {@link #frame(byte[])} add the missing headers before reusing the connection.
+ */
+final class ResponseFraming {
+
+    private ResponseFraming() {}
+
+    /**
+     * Checks whether the client wants the connection kept open after this request: HTTP/1.1
+     * unless it sent {@code Connection: close}, HTTP/1.0 only with {@code Connection: keep-alive}.
+     *
+     * @param ri the parsed request
+     * @return true if the connection may be reused
+     */
+    static boolean keepAlive(RequestInfo ri) {
+        String connection = ri.getHeader("Connection");
+        if (hasToken(connection, "close")) return false;
+        if ("HTTP/1.1".equals(ri.getHttpVersion())) return true;
+        return hasToken(connection, "keep-alive");
+    }
+
+    /**
+     * Frames a complete response for a persistent connection. The head is rewritten with
+     * {@code \r\n} line ends and gets a {@code Content-Length} and a {@code Connection: keep-alive}
+     * header unless it has them already.
+     *
+     * @param response the response exactly as the servlet wrote it
+     * @return the framed response, or null if the connection must be closed after sending the
+     *         response as written (no valid head, {@code Connection: close}, a transfer encoding,
+     *         or a {@code Content-Length} that does not match the body)
+     */
+    static byte[] frame(byte[] response) {
+        if (response.length < 5 || !new String(response, 0, 5, StandardCharsets.ISO_8859_1).equals("HTTP/")) {
+            return null;
+        }
+
+        StringBuilder head = new StringBuilder(256);
+        long contentLength = -1;
+        boolean connection = false;
+        int bodyStart = -1;
+        int pos = 0;
+        while (pos < response.length) {
+            int eol = pos;
+            while (eol < response.length && response[eol] != '\n') eol++;
+            if (eol == response.length) break; // the head never ended
+            int end = eol > pos && response[eol - 1] == '\r' ? eol - 1 : eol;
+            if (end == pos) {
+                bodyStart = eol + 1;
+                break;
+            }
+
+            String line = new String(response, pos, end - pos, StandardCharsets.ISO_8859_1);
+            int colon = line.indexOf(':');
+            if (head.length() > 0 && colon > 0) {
+                String name = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    try {
+                        contentLength = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        return null;
+                    }
+                } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                    return null;
+                } else if (name.equalsIgnoreCase("Connection")) {
+                    if (!hasToken(value, "keep-alive")) return null;
+                    connection = true;
+                }
+            }
+            head.append(line).append("\r\n");
+            pos = eol + 1;
+        }
+        if (bodyStart < 0) return null;
+
+        int bodyLength = response.length - bodyStart;
+        if (contentLength >= 0 && contentLength != bodyLength) return null;
+        if (contentLength < 0) head.append("Content-Length: ").append(bodyLength).append("\r\n");
+        if (!connection) head.append("Connection: keep-alive\r\n");
+        head.append("\r\n");
+
+        byte[] h = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+        byte[] framed = Arrays.copyOf(h, h.length + bodyLength);
+        System.arraycopy(response, bodyStart, framed, h.length, bodyLength);
+        return framed;
+    }
+
+    // Whether a comma-separated header value contains the token, ignoring case
+    private static boolean hasToken(String value, String token) {
+        if (value == null) return false;
+        for (String t : value.split(",")) {
+            if (t.trim().equalsIgnoreCase(token)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,68 @@
+package project_biu.server;
+
+import project_biu.metrics.HttpMetrics;
+import project_biu.metrics.RequestStats;
+import project_biu.servlets.Servlet;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The servlet table shared by the server implementations: servlets registered by HTTP method and
+ * path or path prefix, each with its {@link HttpMetrics} statistics.
+ * <p>
+ * Lookups are safe from any number of threads.
+ */
+final class Routes {
+
+    /**
+     * A registered servlet and the statistics of its route.
+     */
+    static final class Route {
+        final Servlet servlet;
+        final RequestStats stats;
+
+        Route(Servlet servlet, RequestStats stats) {
+            this.servlet = servlet;
+            this.stats = stats;
+        }
+    }
+
+    private final Map<String, Map<String, Route>> byMethod = new ConcurrentHashMap<>();
+
+    /**
+     * Registers a servlet, replacing any servlet registered for the same method and path.
+     *
+     * @param method  the HTTP method (e.g., "GET", "POST")
+     * @param uri     the URI or URI prefix to match
+     * @param servlet the servlet to handle matching requests
+     */
+    void add(String method, String uri, Servlet servlet) {
+        byMethod.computeIfAbsent(method, m -> new ConcurrentHashMap<>())
+                .put(uri, new Route(servlet, HttpMetrics.forRoute(method, uri)));
+    }
+
+    /**
+     * Finds the servlet for a request: an exact path match first, otherwise a registered prefix.
+     *
+     * @param method the request method
+     * @param uri    the request path, without the query string
+     * @return the route, or null if none matches
+     */
+    Route match(String method, String uri) {
+        Map<String, Route> methodMap = byMethod.get(method);
+        if (methodMap == null) return null;
+
+        // Try exact match first
+        Route route = methodMap.get(uri);
+        if (route != null) return route;
+
+        // Fallback to a matching prefix
+        for (Map.Entry<String, Route> e : methodMap.entrySet()) {
+            if (uri.startsWith(e.getKey())) {
+                return e.getValue();
+            }
+        }
+        return null;
+    }
+}
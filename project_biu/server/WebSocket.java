@@ -0,0 +1,263 @@
+package project_biu.server;
+
+import project_biu.server.RequestParser.RequestInfo;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * The server side of a WebSocket connection (RFC 6455), after an HTTP upgrade.
+ * <p>
+ * Supports text messages, including fragmented ones, and answers pings and close frames itself.
+ * Binary messages are refused with close code 1003 as soon as their first frame arrives. Messages
+ * larger than {@value #MAX_MESSAGE} bytes close the connection with code 1009, and frames that
+ * break the protocol (unmasked, reserved bits or opcodes, fragmented control frames) with 1002.
+ * <p>
+ * {@link #readText()} is meant to be called from a single thread; {@link #sendText(String)} may be
+ * called from any thread, and frames are never interleaved.
+ */
+public class WebSocket implements Closeable {
+
+    /** Largest accepted message, in bytes. */
+    public static final int MAX_MESSAGE = 1 << 20;
+
+    private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private static final int OP_CONTINUATION = 0x0;
+    private static final int OP_TEXT = 0x1;
+    private static final int OP_BINARY = 0x2;
+    private static final int OP_CLOSE = 0x8;
+    private static final int OP_PING = 0x9;
+    private static final int OP_PONG = 0xA;
+
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final Object writeLock = new Object();
+    private final ByteArrayOutputStream message = new ByteArrayOutputStream();
+    private volatile boolean closed;
+
+    private WebSocket(InputStream in, OutputStream out) {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        this.out = out;
+    }
+
+    /**
+     * Checks whether a request asks for a WebSocket upgrade.
+     *
+     * @param ri the parsed request
+     * @return true for a GET with {@code Upgrade: websocket} and a {@code Sec-WebSocket-Key}
+     */
+    public static boolean isUpgrade(RequestInfo ri) {
+        String upgrade = ri.getHeader("Upgrade");
+        return "GET".equals(ri.getHttpCommand()) && upgrade != null && upgrade.equalsIgnoreCase("websocket")
+                && ri.getHeader("Sec-WebSocket-Key") != null;
+    }
+
+    /**
+     * Completes the upgrade handshake. If the request is not a valid upgrade, a
+     * {@code 400 Bad Request} is written instead.
+     *
+     * @param ri         the parsed upgrade request
+     * @param fromClient the connection's input, positioned after the request
+     * @param toClient   the connection's output
+     * @return the open WebSocket, or null if the request was refused
+     * @throws IOException if writing the response fails
+     */
+    public static WebSocket accept(RequestInfo ri, InputStream fromClient, OutputStream toClient) throws IOException {
+        if (!isUpgrade(ri)) {
+            toClient.write(("HTTP/1.1 400 Bad Request\r\nContent-Type: text/plain\r\n\r\n"
+                    + "Expected a WebSocket upgrade").getBytes(StandardCharsets.UTF_8));
+            toClient.flush();
+            return null;
+        }
+        String accept = acceptKey(ri.getHeader("Sec-WebSocket-Key"));
+        toClient.write(("HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + accept + "\r\n"
+                + "\r\n").getBytes(StandardCharsets.UTF_8));
+        toClient.flush();
+        return new WebSocket(fromClient, toClient);
+    }
+
+    /**
+     * Reads the next text message, answering control frames on the way.
+     *
+     * @return the message, or null once the connection has been closed
+     * @throws IOException if the connection fails or the peer violates the protocol
+     */
+    public String readText() throws IOException {
+        message.reset();
+        int messageOp = -1;
+        while (!closed) {
+            int b0, b1;
+            try {
+                b0 = in.readUnsignedByte();
+            } catch (EOFException e) {
+                closed = true;
+                return null;
+            }
+            b1 = in.readUnsignedByte();
+            boolean fin = (b0 & 0x80) != 0;
+            int op = b0 & 0x0F;
+            if ((b0 & 0x70) != 0) {
+                close(1002, "Reserved bits set without an extension");
+                return null;
+            }
+            if ((op > OP_BINARY && op < OP_CLOSE) || op > OP_PONG) {
+                close(1002, "Reserved opcode " + op);
+                return null;
+            }
+            if ((b1 & 0x80) == 0) {
+                close(1002, "Client frames must be masked");
+                return null;
+            }
+            long len = b1 & 0x7F;
+            if (len == 126) len = in.readUnsignedShort();
+            else if (len == 127) len = in.readLong();
+
+            if (op >= OP_CLOSE) {
+                if (len > 125 || !fin) {
+                    close(1002, "Control frames must be single frames of at most 125 bytes");
+                    return null;
+                }
+                byte[] payload = readPayload((int) len);
+                if (op == OP_PING) {
+                    send(OP_PONG, payload);
+                } else if (op == OP_CLOSE) {
+                    close(1000, "");
+                    return null;
+                }
+                continue; // pong: ignored
+            }
+
+            if (op == OP_BINARY && messageOp < 0) {
+                close(1003, "Only text messages are supported");
+                return null;
+            }
+            if (len < 0 || message.size() + len > MAX_MESSAGE) {
+                close(1009, "Message too big");
+                return null;
+            }
+            if (op == OP_CONTINUATION) {
+                if (messageOp < 0) {
+                    close(1002, "Unexpected continuation frame");
+                    return null;
+                }
+            } else if (messageOp >= 0) {
+                close(1002, "Expected a continuation frame");
+                return null;
+            } else {
+                messageOp = op;
+            }
+            message.write(readPayload((int) len));
+
+            if (fin) {
+                return message.toString(StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sends a text message in a single frame.
+     *
+     * @param text the message
+     * @throws IOException if the connection is closed or writing fails
+     */
+    public void sendText(String text) throws IOException {
+        send(OP_TEXT, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns whether the connection has been closed by either side.
+     *
+     * @return true once closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Sends a close frame with the given status. The caller then closes the socket.
+     *
+     * @param code   the close status code
+     * @param reason a short reason
+     */
+    public void close(int code, String reason) {
+        if (closed) return;
+        byte[] r = reason.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = new byte[2 + Math.min(r.length, 123)];
+        payload[0] = (byte) (code >> 8);
+        payload[1] = (byte) code;
+        System.arraycopy(r, 0, payload, 2, payload.length - 2);
+        try {
+            send(OP_CLOSE, payload);
+        } catch (IOException ignored) {
+            // the peer is gone already
+        }
+        closed = true;
+    }
+
+    /**
+     * Sends a normal close frame (1000).
+     */
+    @Override
+    public void close() {
+        close(1000, "");
+    }
+
+    private byte[] readPayload(int len) throws IOException {
+        byte[] mask = new byte[4];
+        in.readFully(mask);
+        byte[] payload = new byte[len];
+        in.readFully(payload);
+        for (int i = 0; i < len; i++) {
+            payload[i] ^= mask[i & 3];
+        }
+        return payload;
+    }
+
+    private void send(int op, byte[] payload) throws IOException {
+        if (closed) throw new IOException("WebSocket closed");
+        int len = payload.length;
+        byte[] header;
+        if (len < 126) {
+            header = new byte[]{(byte) (0x80 | op), (byte) len};
+        } else if (len < 65536) {
+            header = new byte[]{(byte) (0x80 | op), 126, (byte) (len >> 8), (byte) len};
+        } else {
+            header = new byte[10];
+            header[0] = (byte) (0x80 | op);
+            header[1] = 127;
+            for (int i = 0; i < 8; i++) {
+                header[9 - i] = (byte) ((long) len >> (8 * i));
+            }
+        }
+        synchronized (writeLock) {
+            out.write(header);
+            out.write(payload);
+            out.flush();
+        }
+    }
+
+    private static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key.trim() + GUID).getBytes(StandardCharsets.ISO_8859_1));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+}
@@ -10,16 +10,25 @@ import project_biu.views.HtmlGraphWriter;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Servlet responsible for handling configuration file uploads via multipart/form-data POST requests.
  * <p>
- * Parses the uploaded config file, resets the topic system, builds a new graph using the config,
+ * Parses the uploaded config file, resets the target graph's topics, builds a new graph using the config,
  * initializes all topics with value "0", and renders a new graph HTML visualization.
  * </p>
+ * <p>
+ * The target graph is named by a {@code graph} query parameter or form field
+ * (default {@value TopicManagerSingleton#DEFAULT_GRAPH}); it is created on first upload.
+ * Graphs are isolated from each other, so uploading one leaves the others running.
  */
 public class ConfLoader implements Servlet {
 
+    /** The currently loaded configuration per graph id; closed before a new one replaces it. */
+    private final Map<String, GenericConfig> configs = new HashMap<>();
+
     /**
      * Handles the POST request for uploading a configuration file.
      * Extracts the file content, parses it, and builds the computational graph.
@@ -43,12 +52,15 @@ public class ConfLoader implements Servlet {
         String[] parts = bodyStr.split(boundary);
 
         String fileContent = null;
+        String graphId = ri.getParameters().getOrDefault("graph", TopicManagerSingleton.DEFAULT_GRAPH);
         for (String part : parts) {
+            int index = part.indexOf("\r\n\r\n");
+            if (index == -1) continue;
             if (part.contains("name=\"file\"")) {
-                int index = part.indexOf("\r\n\r\n");
-                if (index != -1) {
-                    fileContent = part.substring(index + 4).trim();
-                }
+                fileContent = part.substring(index + 4).trim();
+            } else if (part.contains("name=\"graph\"")) {
+                String id = part.substring(index + 4).trim();
+                if (!id.isEmpty()) graphId = id;
             }
         }
 
@@ -57,31 +69,50 @@ public class ConfLoader implements Servlet {
             return;
         }
 
+        TopicManagerSingleton.TopicManager tm;
+        try {
+            tm = TopicManagerSingleton.get(graphId);
+        } catch (IllegalArgumentException e) {
+            respondError(toClient, "❌ " + e.getMessage());
+            return;
+        }
+
         File outDir = new File("src/config_files");
         outDir.mkdirs();
-        File outFile = new File(outDir, "uploaded.conf");
+        String fileName = TopicManagerSingleton.DEFAULT_GRAPH.equals(graphId) ? "uploaded.conf" : "uploaded_" + graphId + ".conf";
+        File outFile = new File(outDir, fileName);
         try (FileWriter fw = new FileWriter(outFile)) {
             fw.write(fileContent);
         }
 
-        TopicManagerSingleton.reset();
+        synchronized (configs) {
+            GenericConfig previous = configs.remove(graphId);
+            if (previous != null) {
+                previous.close(); // stop the previous graph's agent threads / worker pool
+            }
+            TopicManagerSingleton.reset(graphId);
 
-        GenericConfig config = new GenericConfig();
-        config.setConfFile(outFile.getPath());
-        config.create();
+            GenericConfig config = new GenericConfig();
+            config.setConfFile(outFile.getPath());
+            config.setTopicManager(tm);
+            config.create();
+            configs.put(graphId, config);
+        }
 
-        for (Topic t : TopicManagerSingleton.get().getTopics()) {
+        for (Topic t : tm.getTopics()) {
             t.publish(new Message("0"));
         }
 
-        Graph graph = new Graph();
-        graph.createFromTopics();
-        HtmlGraphWriter.writeGraphHtml(graph);  // ✅ overwrites graph.html
+        Graph graph = tm.getGraph();
+        synchronized (graph) {
+            HtmlGraphWriter.writeGraphHtml(graph, graphId);  // ✅ replaces the graph's page
+        }
+        HtmlGraphWriter.requestRender(graphId); // picks up values still propagating
 
-        // ✅ Redirect center iframe to graph.html
+        // ✅ Redirect center iframe to the graph's page
         PrintWriter out = new PrintWriter(toClient);
         out.println("HTTP/1.1 303 See Other");
-        out.println("Location: /app/graph.html");
+        out.println("Location: /app/" + HtmlGraphWriter.pageName(graphId));
         out.println();
         out.flush();
     }
@@ -103,7 +134,13 @@ public class ConfLoader implements Servlet {
     }
 
     /**
-     * Closes the servlet (no cleanup necessary).
+     * Closes the servlet and the configurations loaded into every graph.
      */
-    @Override public void close() {}
+    @Override
+    public void close() {
+        synchronized (configs) {
+            for (GenericConfig config : configs.values()) config.close();
+            configs.clear();
+        }
+    }
 }
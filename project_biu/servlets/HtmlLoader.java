@@ -1,6 +1,8 @@
 package project_biu.servlets;
 
 import project_biu.server.RequestParser.RequestInfo;
+import project_biu.util.Log;
+import project_biu.views.HtmlGraphWriter;
 
 import java.io.*;
 import java.nio.file.Files;
@@ -10,6 +12,7 @@ import java.nio.file.Files;
  * <p>
  * This servlet is mapped to <code>/app/*</code> and is responsible for delivering
  * files like <code>index.html</code>, <code>form.html</code>, etc., to the browser.
+ * Graph pages rendered by {@link HtmlGraphWriter} are served from memory.
  * </p>
  */
 public class HtmlLoader implements Servlet {
@@ -22,7 +25,7 @@ public class HtmlLoader implements Servlet {
      */
     public HtmlLoader(String basePath) {
         this.basePath = basePath;
-        System.out.println("HtmlLoader initialized with basePath: " + basePath);
+        Log.info("HtmlLoader initialized with basePath: " + basePath);
     }
 
     /**
@@ -43,20 +46,37 @@ public class HtmlLoader implements Servlet {
             relativePath = requestUri;
         }
 
+        byte[] page = HtmlGraphWriter.getPage(relativePath);
+        if (page != null) {
+            if (Log.DEBUG) Log.debug("✅ Serving rendered page: " + relativePath);
+            PrintWriter out = new PrintWriter(toClient);
+            out.println("HTTP/1.1 200 OK");
+            out.println("Content-Type: text/html; charset=utf-8");
+            out.println("Content-Length: " + page.length);
+            out.println();
+            out.flush();
+            toClient.write(page);
+            toClient.flush();
+            return;
+        }
+
         File file = new File(basePath, relativePath);
 
-        System.out.println("HtmlLoader handling URI: " + requestUri);
-        System.out.println("Resolved file path: " + file.getAbsolutePath());
+        if (Log.DEBUG) {
+            Log.debug("HtmlLoader handling URI: " + requestUri);
+            Log.debug("Resolved file path: " + file.getAbsolutePath());
+        }
 
         PrintWriter out = new PrintWriter(toClient);
 
         if (!file.exists()) {
-            System.out.println("❌ File not found: " + file.getAbsolutePath());
+            Log.warn("❌ File not found: " + file.getAbsolutePath());
             out.println("HTTP/1.1 404 Not Found");
             out.println();
             out.println("<html><body><h1>404 - File Not Found</h1></body></html>");
+            out.flush();
         } else {
-            System.out.println("✅ Serving file: " + file.getAbsolutePath());
+            if (Log.DEBUG) Log.debug("✅ Serving file: " + file.getAbsolutePath());
             out.println("HTTP/1.1 200 OK");
             out.println("Content-Type: text/html");
             out.println();
@@ -0,0 +1,310 @@
+package project_biu.servlets;
+
+import project_biu.graph.Agent;
+import project_biu.graph.ParallelAgent;
+import project_biu.graph.ShardedScheduler;
+import project_biu.graph.Topic;
+import project_biu.graph.TopicManagerSingleton;
+import project_biu.metrics.HttpMetrics;
+import project_biu.metrics.LatencyHistogram;
+import project_biu.metrics.RequestStats;
+import project_biu.server.RequestParser.RequestInfo;
+import project_biu.util.Json;
+import project_biu.util.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Servlet that exposes runtime statistics of every hosted graph and of the HTTP server.
+ * <p>
+ * Mapped to <code>GET /metrics</code>. Responds in the Prometheus text format by default, or as
+ * JSON when called with <code>?format=json</code> or an <code>Accept: application/json</code> header.
+ * Reported values:
+ * <ul>
+ *   <li>per topic: stored and suppressed message counts (rates are derived by the scraper),
+ *   subscriber and publisher counts, and end-to-end latency since the message's trace origin;</li>
+ *   <li>per {@link ParallelAgent}: queue depth, dropped and conflated counts, enqueue wait,
+ *   queue latency and callback service time. Agents are labelled by name and topics, such as
+ *   {@code plus(A,B->C)}, so a label stays the same across scrapes and restarts. The workers of a
+ *   {@link ShardedScheduler} are reported as {@code shard-0}, {@code shard-1} and so on;</li>
+ *   <li>per HTTP route: request and error counts and request latency.</li>
+ * </ul>
+ * All values are read from counters the system maintains anyway, so scraping costs nothing on
+ * the message path.
+ */
+public class MetricsServlet implements Servlet {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    /**
+     * Handles the HTTP GET request by rendering the current metrics.
+     *
+     * @param ri       the request info; {@code format=json} selects JSON output
+     * @param toClient the output stream to write the response to
+     * @throws IOException if writing to the stream fails
+     */
+    @Override
+    public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+        String accept = ri.getHeader("Accept");
+        boolean json = "json".equalsIgnoreCase(ri.getParameters().get("format"))
+                || (accept != null && accept.contains("application/json"));
+
+        List<TopicRow> topics = new ArrayList<>();
+        List<AgentRow> agents = new ArrayList<>();
+        collect(topics, agents);
+
+        String body = json ? renderJson(topics, agents) : renderPrometheus(topics, agents);
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+
+        PrintWriter out = new PrintWriter(toClient);
+        out.println("HTTP/1.1 200 OK");
+        out.println(json ? "Content-Type: application/json; charset=utf-8"
+                         : "Content-Type: text/plain; version=0.0.4; charset=utf-8");
+        out.println("Content-Length: " + bytes.length);
+        out.println();
+        out.flush();
+        toClient.write(bytes);
+        toClient.flush();
+    }
+
+    // Walks every graph's topics and finds the ParallelAgents subscribed to them and the shard
+    // workers delivering them
+    private static void collect(List<TopicRow> topics, List<AgentRow> agents) {
+        for (String graphId : TopicManagerSingleton.getGraphIds()) {
+            TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.find(graphId);
+            if (tm == null) continue;
+            Map<Agent, Set<String>> inputs = new IdentityHashMap<>();
+            Map<Agent, Set<String>> outputs = new IdentityHashMap<>();
+            Set<ShardedScheduler> schedulers = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Topic t : tm.getTopics()) {
+                topics.add(new TopicRow(graphId, t));
+                ShardedScheduler scheduler = ShardedScheduler.of(t);
+                if (scheduler != null) schedulers.add(scheduler);
+                for (Agent a : t.getSubscribers()) {
+                    if (a instanceof ParallelAgent) inputs.computeIfAbsent(a, k -> new TreeSet<>()).add(t.name);
+                }
+                for (Agent a : t.getPublishers()) {
+                    outputs.computeIfAbsent(a, k -> new TreeSet<>()).add(t.name);
+                }
+            }
+
+            List<AgentRow> rows = new ArrayList<>();
+            for (Map.Entry<Agent, Set<String>> e : inputs.entrySet()) {
+                ParallelAgent pa = (ParallelAgent) e.getKey();
+                Set<String> out = outputs.getOrDefault(pa.getAgent(), outputs.getOrDefault(pa, Collections.emptySet()));
+                String label = pa.getName() + "(" + String.join(",", e.getValue()) + "->" + String.join(",", out) + ")";
+                rows.add(new AgentRow(graphId, label, pa));
+            }
+            for (ShardedScheduler scheduler : schedulers) {
+                for (ParallelAgent runner : scheduler.getRunners()) {
+                    rows.add(new AgentRow(graphId, runner.getName(), runner));
+                }
+            }
+            rows.sort(Comparator.comparing(r -> r.label));
+            Map<String, Integer> counts = new HashMap<>();
+            for (AgentRow r : rows) {
+                int n = counts.merge(r.label, 1, Integer::sum);
+                // the same kind of agent twice on the same topics
+                agents.add(n == 1 ? r : new AgentRow(graphId, r.label + "#" + n, r.agent));
+            }
+        }
+    }
+
+    private static String renderPrometheus(List<TopicRow> topics, List<AgentRow> agents) {
+        StringBuilder sb = new StringBuilder(4096);
+
+        family(sb, "biu_topic_messages_total", "counter", "Messages stored in the topic.");
+        for (TopicRow r : topics) sample(sb, "biu_topic_messages_total", r.labels(), r.topic.getVersion());
+        family(sb, "biu_topic_suppressed_total", "counter", "Publishes dropped by change detection.");
+        for (TopicRow r : topics) sample(sb, "biu_topic_suppressed_total", r.labels(), r.topic.getSuppressedCount());
+        family(sb, "biu_topic_subscribers", "gauge", "Agents subscribed to the topic.");
+        for (TopicRow r : topics) sample(sb, "biu_topic_subscribers", r.labels(), r.topic.getSubscribers().size());
+        family(sb, "biu_topic_publishers", "gauge", "Agents publishing to the topic.");
+        for (TopicRow r : topics) sample(sb, "biu_topic_publishers", r.labels(), r.topic.getPublishers().size());
+        family(sb, "biu_topic_latency_seconds", "summary", "End-to-end latency from trace origin to the topic.");
+        for (TopicRow r : topics) summary(sb, "biu_topic_latency_seconds", r.labels(), r.topic.getLatencyHistogram());
+
+        family(sb, "biu_agent_queue_depth", "gauge", "Messages waiting in the agent's mailbox.");
+        for (AgentRow r : agents) sample(sb, "biu_agent_queue_depth", r.labels(), r.agent.getQueueSize());
+        family(sb, "biu_agent_dropped_total", "counter", "Messages dropped because the mailbox was full.");
+        for (AgentRow r : agents) sample(sb, "biu_agent_dropped_total", r.labels(), r.agent.getDroppedCount());
+        family(sb, "biu_agent_conflated_total", "counter", "Messages replaced by a newer value before delivery.");
+        for (AgentRow r : agents) sample(sb, "biu_agent_conflated_total", r.labels(), r.agent.getConflatedCount());
+        family(sb, "biu_agent_enqueue_wait_seconds", "summary", "Time publishers waited for mailbox space.");
+        for (AgentRow r : agents) summary(sb, "biu_agent_enqueue_wait_seconds", r.labels(), r.agent.getEnqueueWait());
+        family(sb, "biu_agent_queue_latency_seconds", "summary", "Message age when handed to the agent.");
+        for (AgentRow r : agents) summary(sb, "biu_agent_queue_latency_seconds", r.labels(), r.agent.getQueueLatency());
+        family(sb, "biu_agent_service_seconds", "summary", "Duration of the agent's callbacks.");
+        for (AgentRow r : agents) summary(sb, "biu_agent_service_seconds", r.labels(), r.agent.getServiceTime());
+
+        Map<String, RequestStats> routes = HttpMetrics.getRoutes();
+        family(sb, "biu_http_requests_total", "counter", "HTTP requests handled per route.");
+        for (Map.Entry<String, RequestStats> e : routes.entrySet()) {
+            sample(sb, "biu_http_requests_total", routeLabels(e.getKey()), e.getValue().getRequestCount());
+        }
+        family(sb, "biu_http_errors_total", "counter", "HTTP requests whose handling failed, per route.");
+        for (Map.Entry<String, RequestStats> e : routes.entrySet()) {
+            sample(sb, "biu_http_errors_total", routeLabels(e.getKey()), e.getValue().getErrorCount());
+        }
+        family(sb, "biu_http_request_seconds", "summary", "HTTP request latency per route.");
+        for (Map.Entry<String, RequestStats> e : routes.entrySet()) {
+            summary(sb, "biu_http_request_seconds", routeLabels(e.getKey()), e.getValue().getLatency());
+        }
+
+        family(sb, "biu_log_dropped_total", "counter", "Log lines dropped because the log buffer was full.");
+        sample(sb, "biu_log_dropped_total", "", Log.getDroppedCount());
+        return sb.toString();
+    }
+
+    private static void family(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, long value) {
+        sb.append(name);
+        if (!labels.isEmpty()) sb.append('{').append(labels).append('}');
+        sb.append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder sb, String name, String labels, LatencyHistogram h) {
+        String sep = labels.isEmpty() ? "" : ",";
+        for (double q : QUANTILES) {
+            sb.append(name).append('{').append(labels).append(sep).append("quantile=\"").append(q).append("\"} ")
+              .append(seconds(h.getPercentile(q * 100))).append('\n');
+        }
+        String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+        sb.append(name).append("_sum").append(braces).append(' ').append(seconds(h.getSum())).append('\n');
+        sb.append(name).append("_count").append(braces).append(' ').append(h.getCount()).append('\n');
+    }
+
+    private static String routeLabels(String route) {
+        int space = route.indexOf(' ');
+        if (space < 0) return "route=\"" + escape(route) + "\"";
+        return "method=\"" + escape(route.substring(0, space)) + "\",path=\"" + escape(route.substring(space + 1)) + "\"";
+    }
+
+    private static String renderJson(List<TopicRow> topics, List<AgentRow> agents) {
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("{\"topics\":[");
+        for (int i = 0; i < topics.size(); i++) {
+            TopicRow r = topics.get(i);
+            if (i > 0) sb.append(',');
+            sb.append("{\"graph\":").append(Json.quote(r.graph))
+              .append(",\"topic\":").append(Json.quote(r.topic.name))
+              .append(",\"messages\":").append(r.topic.getVersion())
+              .append(",\"suppressed\":").append(r.topic.getSuppressedCount())
+              .append(",\"subscribers\":").append(r.topic.getSubscribers().size())
+              .append(",\"publishers\":").append(r.topic.getPublishers().size())
+              .append(",\"latency\":");
+            histogramJson(sb, r.topic.getLatencyHistogram());
+            sb.append('}');
+        }
+        sb.append("],\"agents\":[");
+        for (int i = 0; i < agents.size(); i++) {
+            AgentRow r = agents.get(i);
+            if (i > 0) sb.append(',');
+            sb.append("{\"graph\":").append(Json.quote(r.graph))
+              .append(",\"agent\":").append(Json.quote(r.label))
+              .append(",\"queueDepth\":").append(r.agent.getQueueSize())
+              .append(",\"dropped\":").append(r.agent.getDroppedCount())
+              .append(",\"conflated\":").append(r.agent.getConflatedCount())
+              .append(",\"enqueueWait\":");
+            histogramJson(sb, r.agent.getEnqueueWait());
+            sb.append(",\"queueLatency\":");
+            histogramJson(sb, r.agent.getQueueLatency());
+            sb.append(",\"serviceTime\":");
+            histogramJson(sb, r.agent.getServiceTime());
+            sb.append('}');
+        }
+        sb.append("],\"http\":[");
+        boolean first = true;
+        for (Map.Entry<String, RequestStats> e : HttpMetrics.getRoutes().entrySet()) {
+            if (!first) sb.append(',');
+            first = false;
+            sb.append("{\"route\":").append(Json.quote(e.getKey()))
+              .append(",\"requests\":").append(e.getValue().getRequestCount())
+              .append(",\"errors\":").append(e.getValue().getErrorCount())
+              .append(",\"latency\":");
+            histogramJson(sb, e.getValue().getLatency());
+            sb.append('}');
+        }
+        sb.append("],\"logDropped\":").append(Log.getDroppedCount()).append("}\n");
+        return sb.toString();
+    }
+
+    // Latencies in nanoseconds
+    private static void histogramJson(StringBuilder sb, LatencyHistogram h) {
+        sb.append("{\"count\":").append(h.getCount())
+          .append(",\"mean\":").append(String.format(Locale.ROOT, "%.1f", h.getMean()))
+          .append(",\"p50\":").append(h.getPercentile(50))
+          .append(",\"p90\":").append(h.getPercentile(90))
+          .append(",\"p99\":").append(h.getPercentile(99))
+          .append(",\"max\":").append(h.getMax())
+          .append('}');
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    // Escapes a Prometheus label value
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * A topic together with the graph it belongs to.
+     */
+    private static final class TopicRow {
+        final String graph;
+        final Topic topic;
+
+        TopicRow(String graph, Topic topic) {
+            this.graph = graph;
+            this.topic = topic;
+        }
+
+        String labels() {
+            return "graph=\"" + escape(graph) + "\",topic=\"" + escape(topic.name) + "\"";
+        }
+    }
+
+    /**
+     * An asynchronous agent with a label that is unique within its graph.
+     */
+    private static final class AgentRow {
+        final String graph;
+        final String label;
+        final ParallelAgent agent;
+
+        AgentRow(String graph, String label, ParallelAgent agent) {
+            this.graph = graph;
+            this.label = label;
+            this.agent = agent;
+        }
+
+        String labels() {
+            return "graph=\"" + escape(graph) + "\",agent=\"" + escape(label) + "\"";
+        }
+    }
+
+    /**
+     * No resources to release.
+     */
+    @Override
+    public void close() {}
+}
@@ -4,8 +4,8 @@ import project_biu.server.RequestParser.RequestInfo;
 import project_biu.graph.TopicManagerSingleton;
 import project_biu.graph.Topic;
 import project_biu.graph.Message;
-import project_biu.graph.Graph;
 import project_biu.views.HtmlGraphWriter;
+import project_biu.util.Log;
 
 import java.io.OutputStream;
 import java.io.PrintWriter;
@@ -19,8 +19,9 @@ import java.util.List;
  * <ul>
  *   <li><b>topic</b>: the name of the topic</li>
  *   <li><b>message</b>: the value to be published</li>
+ *   <li><b>graph</b>: the graph id (optional, default {@value TopicManagerSingleton#DEFAULT_GRAPH})</li>
  * </ul>
- * It validates the input, updates the topic, regenerates the graph HTML, and returns an updated page.
+ * It validates the input, updates the topic, and returns the re-rendered graph page.
  */
 public class SendMessageServlet implements Servlet {
 
@@ -35,8 +36,9 @@ public class SendMessageServlet implements Servlet {
     public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
         String topicName = ri.getParameters().get("topic");
         String msg = ri.getParameters().get("message");
+        String graphId = ri.getParameters().getOrDefault("graph", TopicManagerSingleton.DEFAULT_GRAPH);
 
-        System.out.println("📨 Received POST: topic=" + topicName + ", message=" + msg);
+        if (Log.DEBUG) Log.debug("📨 Received POST: topic=" + topicName + ", message=" + msg);
 
         PrintWriter out = new PrintWriter(toClient);
 
@@ -45,27 +47,37 @@ public class SendMessageServlet implements Servlet {
             return;
         }
 
-        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.find(graphId);
+        if (tm == null) {
+            sendStyledError(out, TopicManagerSingleton.isValidGraphId(graphId)
+                    ? "Graph not found: <code>" + graphId + "</code>"
+                    : "Invalid graph id"); // not echoed: it may hold markup
+            return;
+        }
 
         if (!tm.hasTopic(topicName)) {
-            System.out.println("❌ Topic does not exist: " + topicName);
+            Log.warn("❌ Topic does not exist: " + topicName);
             sendStyledError(out, "Topic not found: <code>" + topicName + "</code>");
             return;
         }
 
         Topic topic = tm.getTopic(topicName);
         topic.publish(new Message(msg));
-        System.out.println("✅ Published message to topic: " + topicName);
+        if (Log.DEBUG) Log.debug("✅ Published message to topic: " + topicName);
 
-        Graph graph = new Graph();
-        graph.createFromTopics();
-        HtmlGraphWriter.writeGraphHtml(graph);
+        byte[] page = HtmlGraphWriter.render(graphId);
+        if (page == null) {
+            sendStyledError(out, "Failed to render graph <code>" + graphId + "</code>");
+            return;
+        }
 
         out.println("HTTP/1.1 200 OK");
-        out.println("Content-Type: text/html");
+        out.println("Content-Type: text/html; charset=utf-8");
+        out.println("Content-Length: " + page.length);
         out.println();
-        HtmlGraphWriter.writeGraphHtml(graph);
         out.flush();
+        toClient.write(page);
+        toClient.flush();
     }
 
     /**
@@ -0,0 +1,50 @@
+package project_biu.servlets;
+
+import project_biu.server.RequestParser.RequestInfo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A servlet whose response is a long-lived stream, such as Server-Sent Events or a WebSocket.
+ * <p>
+ * {@link #handle} keeps writing to the client until the stream ends or the connection fails, so
+ * servers run it on a thread of its own instead of the thread that accepts requests, and close
+ * the connection when the server shuts down.
+ */
+public interface StreamingServlet extends Servlet {
+
+    /**
+     * Serves a stream that also reads from the client after the request. Servers call this
+     * method; the default implementation ignores the input and calls {@link #handle}.
+     *
+     * @param ri         the parsed request
+     * @param fromClient the connection's input, positioned after the request
+     * @param toClient   the connection's output
+     * @throws IOException if an I/O error occurs while streaming
+     */
+    default void stream(RequestInfo ri, InputStream fromClient, OutputStream toClient) throws IOException {
+        handle(ri, toClient);
+    }
+
+    /**
+     * Starts the stream without blocking the calling thread, for servers that multiplex many
+     * connections over few threads. The servlet keeps writing to {@code toClient} from threads of
+     * its own and runs {@code onClose} once, when the stream has ended (at once if it only wrote an
+     * error response). {@code toClient} must never block on writes; a server passes a stream that
+     * buffers and fails with an {@link IOException} when the client is gone or too far behind.
+     * <p>
+     * The default implementation returns false: the servlet needs {@link #stream} on a thread
+     * of its own.
+     *
+     * @param ri       the parsed request
+     * @param toClient the connection's non-blocking output
+     * @param onClose  run when the stream is over; the server then closes the connection
+     * @return true if the servlet took over the connection, false if it must be streamed on a thread
+     * @throws IOException if writing the response headers fails
+     */
+    default boolean open(RequestInfo ri, OutputStream toClient, Runnable onClose) throws IOException {
+        return false;
+    }
+}
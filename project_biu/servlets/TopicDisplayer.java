@@ -3,22 +3,21 @@ package project_biu.servlets;
 import project_biu.graph.Topic;
 import project_biu.graph.TopicManagerSingleton;
 import project_biu.graph.Message;
-import project_biu.graph.Graph;
 import project_biu.views.HtmlGraphWriter;
 import project_biu.server.RequestParser.RequestInfo;
 
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.IOException;
-import java.lang.reflect.Field;
 
 /**
  * Servlet responsible for displaying and updating topic values.
  * <p>
  * Supports GET requests to the `/publish` endpoint:
  * - If query parameters `topic` and `value` are provided, the servlet attempts to publish the value to the topic.
+ * - The optional `graph` parameter selects the graph (default: {@value TopicManagerSingleton#DEFAULT_GRAPH}).
  * - Displays a table with the latest values of all topics.
- * - Updates the visual graph representation via {@link HtmlGraphWriter}.
+ * - Schedules a refresh of the visual graph representation via {@link HtmlGraphWriter}.
  * </p>
  */
 public class TopicDisplayer implements Servlet {
@@ -34,22 +33,39 @@ public class TopicDisplayer implements Servlet {
     public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
         String topicName = ri.getParameters().get("topic");
         String value = ri.getParameters().get("value");
+        String graphId = ri.getParameters().getOrDefault("graph", TopicManagerSingleton.DEFAULT_GRAPH);
 
         PrintWriter out = new PrintWriter(toClient);
         out.println("HTTP/1.1 200 OK");
         out.println("Content-Type: text/html; charset=utf-8");
         out.println();
 
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.find(graphId);
+        if (tm == null) {
+            if (TopicManagerSingleton.isValidGraphId(graphId)) {
+                out.println("<p style='color:red;'>❌ Graph '" + graphId + "' does not exist.</p>");
+            } else {
+                out.println("<p style='color:red;'>❌ Invalid graph id.</p>"); // not echoed: it may hold markup
+            }
+            out.println("<p>Available graphs:</p><ul>");
+            for (String id : TopicManagerSingleton.getGraphIds()) {
+                out.println("<li>" + id + "</li>");
+            }
+            out.println("</ul>");
+            out.flush();
+            return;
+        }
+
         boolean errorShown = false;
 
         // Handle publishing if parameters are present
         if (topicName != null && value != null) {
-            Topic topic = TopicManagerSingleton.get().getTopic(topicName);
+            Topic topic = tm.getTopic(topicName);
             if (topic == null) {
                 // ❌ Show error if topic does not exist
                 out.println("<p style='color:red;'>❌ Topic '" + topicName + "' does not exist.</p>");
                 out.println("<p>Available topics:</p><ul>");
-                for (Topic t : TopicManagerSingleton.get().getTopics()) {
+                for (Topic t : tm.getTopics()) {
                     out.println("<li>" + t.name + "</li>");
                 }
                 out.println("</ul>");
@@ -58,10 +74,8 @@ public class TopicDisplayer implements Servlet {
                 // ✅ Publish value to topic
                 topic.publish(new Message(value));
 
-                // Update graph HTML
-                Graph graph = new Graph();
-                graph.createFromTopics();
-                HtmlGraphWriter.writeGraphHtml(graph);
+                // Refresh the graph page in the background; bursts are coalesced
+                HtmlGraphWriter.requestRender(graphId);
             }
         }
 
@@ -72,7 +86,7 @@ public class TopicDisplayer implements Servlet {
 
         out.println("<table border='1'>");
         out.println("<tr><th>Topic</th><th>Last Value</th></tr>");
-        for (Topic t : TopicManagerSingleton.get().getTopics()) {
+        for (Topic t : tm.getTopics()) {
             String val = getLastMessageText(t);
             out.println("<tr><td>" + t.name + "</td><td>" + val + "</td></tr>");
         }
@@ -81,20 +95,14 @@ public class TopicDisplayer implements Servlet {
     }
 
     /**
-     * Uses reflection to extract the last message value from a topic.
+     * Returns the text of the last message published to a topic.
      *
      * @param topic the topic to inspect
-     * @return the string value of the last message, or "0" if unavailable
+     * @return the string value of the last message, or "0" if nothing was published yet
      */
     private String getLastMessageText(Topic topic) {
-        try {
-            Field f = topic.getClass().getDeclaredField("lastMessage");
-            f.setAccessible(true);
-            Message msg = (Message) f.get(topic);
-            return (msg != null && msg.asText != null) ? msg.asText : "0";
-        } catch (Exception e) {
-            return "0";
-        }
+        Message msg = topic.getLastMessage();
+        return (msg != null) ? msg.asText() : "0";
     }
 
     /**
@@ -0,0 +1,227 @@
+package project_biu.servlets;
+
+import project_biu.graph.Message;
+import project_biu.graph.Topic;
+import project_biu.graph.TopicManagerSingleton;
+import project_biu.server.RequestParser.RequestInfo;
+import project_biu.util.Json;
+import project_biu.util.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Servlet that streams topic value changes to the browser as Server-Sent Events.
+ * <p>
+ * Mapped to <code>GET /events</code>. Optional query parameters:
+ * <ul>
+ *   <li><b>graph</b>: the graph id (default {@value TopicManagerSingleton#DEFAULT_GRAPH})</li>
+ *   <li><b>interval</b>: minimum milliseconds between two events (default from the
+ *   {@code project_biu.sse.interval} system property, else {@value #DEFAULT_INTERVAL_MILLIS};
+ *   at least {@value #MIN_INTERVAL_MILLIS})</li>
+ * </ul>
+ * The first event, {@code snapshot}, carries every topic; later {@code update} events carry only
+ * the topics whose {@link Topic#getVersion() version} changed since the previous event, so any
+ * number of publishes within one interval cost a single event. When the graph is reloaded the next
+ * event is a full {@code snapshot} again. Each event's data is a JSON object:
+ * <pre>
+ * {"graph":"default","version":42,"topics":[{"name":"A","value":"3.0","version":7}]}
+ * </pre>
+ * and its {@code id} is the manager-wide version. A comment line is sent after
+ * {@value #KEEPALIVE_MILLIS} ms without events to keep proxies from closing the connection.
+ */
+public class TopicEventsServlet implements StreamingServlet {
+    private static final long DEFAULT_INTERVAL_MILLIS = 250;
+    private static final long MIN_INTERVAL_MILLIS = 20;
+    private static final long KEEPALIVE_MILLIS = 15000;
+
+    private static final long INTERVAL_MILLIS = Math.max(MIN_INTERVAL_MILLIS,
+            Long.getLong("project_biu.sse.interval", DEFAULT_INTERVAL_MILLIS));
+
+    /** Runs the streams started with {@link #open}, so they need no thread each. */
+    private static final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "sse-ticker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Streams events until the client disconnects, the graph is removed or the thread is interrupted.
+     *
+     * @param ri       the request info; {@code graph} and {@code interval} are optional
+     * @param toClient the output stream for the event stream
+     * @throws IOException if the response headers cannot be written
+     */
+    @Override
+    public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+        EventStream stream = start(ri, toClient);
+        if (stream == null) return;
+        try {
+            while (stream.tick()) {
+                Thread.sleep(stream.interval);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Starts the stream on a shared ticker thread; see {@link StreamingServlet#open}.
+     *
+     * @param ri       the request info; {@code graph} and {@code interval} are optional
+     * @param toClient the connection's non-blocking output
+     * @param onClose  run when the stream has ended
+     * @return always true
+     * @throws IOException if the response headers cannot be written
+     */
+    @Override
+    public boolean open(RequestInfo ri, OutputStream toClient, Runnable onClose) throws IOException {
+        EventStream stream = start(ri, toClient);
+        if (stream == null) {
+            onClose.run();
+            return true;
+        }
+        stream.task = ticker.scheduleWithFixedDelay(() -> {
+            if (!stream.tick()) {
+                stream.task.cancel(false);
+                onClose.run();
+            }
+        }, 0, stream.interval, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    // Writes the response headers; returns null after writing an error response
+    private static EventStream start(RequestInfo ri, OutputStream toClient) throws IOException {
+        String graphId = ri.getParameters().getOrDefault("graph", TopicManagerSingleton.DEFAULT_GRAPH);
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.find(graphId);
+        if (tm == null) {
+            toClient.write(("HTTP/1.1 404 Not Found\r\nContent-Type: text/plain\r\n\r\nGraph not found: " + graphId)
+                    .getBytes(StandardCharsets.UTF_8));
+            toClient.flush();
+            return null;
+        }
+
+        toClient.write(("HTTP/1.1 200 OK\r\n"
+                + "Content-Type: text/event-stream; charset=utf-8\r\n"
+                + "Cache-Control: no-cache\r\n"
+                + "Connection: keep-alive\r\n"
+                + "\r\n"
+                + "retry: 2000\n\n").getBytes(StandardCharsets.UTF_8));
+        toClient.flush();
+        if (Log.DEBUG) Log.debug("📡 Event stream opened for graph " + graphId);
+        return new EventStream(graphId, tm, toClient, parseInterval(ri.getParameters().get("interval")));
+    }
+
+    private static void write(OutputStream toClient, String s) throws IOException {
+        toClient.write(s.getBytes(StandardCharsets.UTF_8));
+        toClient.flush();
+    }
+
+    private static long parseInterval(String s) {
+        if (s == null) return INTERVAL_MILLIS;
+        try {
+            return Math.max(MIN_INTERVAL_MILLIS, Long.parseLong(s.trim()));
+        } catch (NumberFormatException e) {
+            return INTERVAL_MILLIS;
+        }
+    }
+
+    /**
+     * The state of one event stream: what the client has been sent so far.
+     */
+    private static final class EventStream {
+        final String graphId;
+        final TopicManagerSingleton.TopicManager tm;
+        final OutputStream toClient;
+        final long interval;
+        volatile ScheduledFuture<?> task;
+
+        Topic[] sent = new Topic[0];
+        long[] sentVersions = new long[0];
+        long lastVersion = -1;
+        long lastWrite = System.currentTimeMillis();
+
+        EventStream(String graphId, TopicManagerSingleton.TopicManager tm, OutputStream toClient, long interval) {
+            this.graphId = graphId;
+            this.tm = tm;
+            this.toClient = toClient;
+            this.interval = interval;
+        }
+
+        /** Sends what changed since the last call; returns false once the stream is over. */
+        boolean tick() {
+            if (TopicManagerSingleton.find(graphId) != tm) return false;
+            try {
+                long version = tm.getVersion();
+                if (version != lastVersion) {
+                    sendChanges(version);
+                } else if (System.currentTimeMillis() - lastWrite >= KEEPALIVE_MILLIS) {
+                    write(toClient, ": keepalive\n\n");
+                    lastWrite = System.currentTimeMillis();
+                }
+                return true;
+            } catch (IOException e) {
+                if (Log.DEBUG) Log.debug("📡 Event stream closed for graph " + graphId + ": " + e.getMessage());
+                return false;
+            }
+        }
+
+        private void sendChanges(long version) throws IOException {
+            List<Topic> topics = tm.getTopics();
+            boolean snapshot = topics.size() < sent.length;
+            for (int i = 0; i < sent.length && !snapshot; i++) {
+                snapshot = topics.get(i) != sent[i];
+            }
+            if (snapshot) {
+                sent = new Topic[0];
+                sentVersions = new long[0];
+            }
+
+            StringBuilder sb = new StringBuilder(128);
+            sb.append("id: ").append(version)
+              .append(snapshot || lastVersion < 0 ? "\nevent: snapshot" : "\nevent: update")
+              .append("\ndata: {\"graph\":").append(Json.quote(graphId))
+              .append(",\"version\":").append(version)
+              .append(",\"topics\":[");
+
+            int n = topics.size();
+            Topic[] nowTopics = Arrays.copyOf(sent, n);
+            long[] nowVersions = Arrays.copyOf(sentVersions, n);
+            boolean first = true;
+            for (int i = 0; i < n; i++) {
+                Topic t = topics.get(i);
+                long v = t.getVersion(); // read before the message, see Topic#getVersion()
+                if (i < sent.length && v == sentVersions[i]) continue;
+                Message m = t.getLastMessage();
+                if (!first) sb.append(',');
+                first = false;
+                sb.append("{\"name\":").append(Json.quote(t.name))
+                  .append(",\"value\":").append(m != null ? Json.quote(m.asText()) : "null")
+                  .append(",\"version\":").append(v).append('}');
+                nowTopics[i] = t;
+                nowVersions[i] = v;
+            }
+            sb.append("]}\n\n");
+            sent = nowTopics;
+            sentVersions = nowVersions;
+            lastVersion = version;
+
+            if (!first || snapshot || n == 0) {
+                write(toClient, sb.toString());
+                lastWrite = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * Releases any resources (none needed in this servlet).
+     */
+    @Override public void close() {}
+}
@@ -0,0 +1,206 @@
+package project_biu.servlets;
+
+import project_biu.graph.Agent;
+import project_biu.graph.Message;
+import project_biu.graph.Topic;
+import project_biu.graph.TopicManagerSingleton;
+import project_biu.server.RequestParser.RequestInfo;
+import project_biu.server.WebSocket;
+import project_biu.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Servlet that lets a client publish to and subscribe to topics over one WebSocket connection.
+ * <p>
+ * Mapped to <code>GET /ws</code>; the optional <b>graph</b> query parameter selects the graph
+ * (default {@value TopicManagerSingleton#DEFAULT_GRAPH}). Every text message holds one or more
+ * commands, one per line:
+ * <ul>
+ *   <li><code>pub &lt;topic&gt; &lt;value&gt;</code> publishes the value (the rest of the line)</li>
+ *   <li><code>sub &lt;topic&gt;</code> subscribes to the topic</li>
+ *   <li><code>unsub &lt;topic&gt;</code> cancels a subscription</li>
+ * </ul>
+ * Publishes are not acknowledged, so a client can batch thousands of them into a single message.
+ * For subscribed topics the server sends lines <code>msg &lt;topic&gt; &lt;value&gt;</code>, again
+ * several per message. Delivery is conflated: if a topic changes faster than the connection drains,
+ * the client gets its latest value, and publishers never wait for a slow client. Invalid commands
+ * are answered with <code>err &lt;reason&gt;</code>.
+ * <p>
+ * Subscriptions are made as topic {@linkplain Topic#addObserver(Agent) observers}, so they work in
+ * every propagation mode and do not show up in the graph. They apply to the topics that exist when
+ * the command is received; after the graph is reloaded the client subscribes again.
+ */
+public class TopicSocketServlet implements StreamingServlet {
+
+    /**
+     * Answers requests that are not WebSocket upgrades with {@code 400 Bad Request}.
+     *
+     * @param ri       the request info
+     * @param toClient the output stream to write the response to
+     * @throws IOException if writing fails
+     */
+    @Override
+    public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+        WebSocket.accept(ri, InputStream.nullInputStream(), toClient);
+    }
+
+    /**
+     * Upgrades the connection and serves commands until the client disconnects.
+     *
+     * @param ri         the upgrade request
+     * @param fromClient the connection's input
+     * @param toClient   the connection's output
+     * @throws IOException if the handshake cannot be written
+     */
+    @Override
+    public void stream(RequestInfo ri, InputStream fromClient, OutputStream toClient) throws IOException {
+        String graphId = ri.getParameters().getOrDefault("graph", TopicManagerSingleton.DEFAULT_GRAPH);
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.find(graphId);
+        if (tm == null) {
+            toClient.write(("HTTP/1.1 404 Not Found\r\nContent-Type: text/plain\r\n\r\nGraph not found: " + graphId)
+                    .getBytes(StandardCharsets.UTF_8));
+            toClient.flush();
+            return;
+        }
+        WebSocket ws = WebSocket.accept(ri, fromClient, toClient);
+        if (ws == null) return;
+
+        Subscriber sub = new Subscriber(ws);
+        Thread writer = new Thread(sub::writeLoop, "ws-writer");
+        writer.setDaemon(true);
+        writer.start();
+        if (Log.DEBUG) Log.debug("🔌 WebSocket opened for graph " + graphId);
+
+        try {
+            String text;
+            while ((text = ws.readText()) != null) {
+                int start = 0;
+                while (start < text.length()) {
+                    int end = text.indexOf('\n', start);
+                    if (end < 0) end = text.length();
+                    String error = execute(tm, sub, text, start, end);
+                    if (error != null) ws.sendText("err " + error);
+                    start = end + 1;
+                }
+            }
+        } catch (IOException e) {
+            if (Log.DEBUG) Log.debug("🔌 WebSocket closed for graph " + graphId + ": " + e.getMessage());
+        } finally {
+            sub.close();
+            writer.interrupt();
+            ws.close();
+        }
+    }
+
+    // Runs the command in text[start, end); returns an error message or null
+    private static String execute(TopicManagerSingleton.TopicManager tm, Subscriber sub, String text, int start, int end) {
+        if (end > start && text.charAt(end - 1) == '\r') end--;
+        if (start == end) return null;
+        int sp = text.indexOf(' ', start);
+        if (sp < 0 || sp > end) return "missing topic: " + text.substring(start, end);
+        String cmd = text.substring(start, sp);
+
+        if (cmd.equals("pub")) {
+            int sp2 = text.indexOf(' ', sp + 1);
+            if (sp2 < 0 || sp2 > end) return "missing value: " + text.substring(start, end);
+            Topic t = tm.getTopic(text.substring(sp + 1, sp2));
+            if (t == null) return "unknown topic: " + text.substring(sp + 1, sp2);
+            t.publish(new Message(text.substring(sp2 + 1, end)));
+            return null;
+        }
+
+        if (!cmd.equals("sub") && !cmd.equals("unsub")) return "unknown command: " + cmd;
+        String name = text.substring(sp + 1, end);
+        Topic t = tm.getTopic(name);
+        if (t == null) return "unknown topic: " + name;
+        if (cmd.equals("sub")) sub.subscribe(t); else sub.unsubscribe(t);
+        return null;
+    }
+
+    /**
+     * Releases any resources (none needed in this servlet).
+     */
+    @Override public void close() {}
+
+    /**
+     * Observes the topics one connection subscribed to. Callbacks only record the latest message
+     * per topic; the connection's writer thread sends them.
+     */
+    private static final class Subscriber implements Agent {
+        private final WebSocket ws;
+        private final Set<Topic> topics = ConcurrentHashMap.newKeySet();
+        private final Map<String, Message> pending = new ConcurrentHashMap<>();
+        private final BlockingQueue<String> dirty = new LinkedBlockingQueue<>();
+
+        Subscriber(WebSocket ws) {
+            this.ws = ws;
+        }
+
+        void subscribe(Topic t) {
+            if (topics.add(t)) t.addObserver(this);
+        }
+
+        void unsubscribe(Topic t) {
+            if (topics.remove(t)) t.removeObserver(this);
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            if (pending.put(topic, msg) == null) {
+                dirty.offer(topic);
+            }
+        }
+
+        // Sends pending values, all that are ready in one message, until the connection closes
+        void writeLoop() {
+            List<String> names = new ArrayList<>();
+            StringBuilder sb = new StringBuilder();
+            try {
+                while (!ws.isClosed()) {
+                    names.add(dirty.take());
+                    dirty.drainTo(names);
+                    sb.setLength(0);
+                    for (String name : names) {
+                        Message m = pending.remove(name);
+                        if (m == null) continue;
+                        if (sb.length() > 0) sb.append('\n');
+                        sb.append("msg ").append(name).append(' ').append(m.asText());
+                    }
+                    names.clear();
+                    if (sb.length() > 0) ws.sendText(sb.toString());
+                }
+            } catch (InterruptedException | IOException e) {
+                // connection closed
+            }
+        }
+
+        @Override
+        public String getName() {
+            return "WebSocketClient";
+        }
+
+        @Override
+        public void reset() {
+            pending.clear();
+        }
+
+        @Override
+        public void close() {
+            for (Topic t : topics) {
+                t.removeObserver(this);
+            }
+            topics.clear();
+        }
+    }
+}
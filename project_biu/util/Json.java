@@ -0,0 +1,33 @@
+package project_biu.util;
+
+/**
+ * Minimal helpers for writing JSON by hand.
+ */
+public final class Json {
+
+    private Json() {}
+
+    /**
+     * Encodes a string as a JSON string literal, including the surrounding quotes.
+     *
+     * @param s the string
+     * @return the quoted and escaped literal
+     */
+    public static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
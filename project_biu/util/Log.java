@@ -0,0 +1,217 @@
+package project_biu.util;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A small leveled logger that never writes to the console on the caller's thread.
+ * <p>
+ * Log calls only enqueue the line into a bounded ring buffer; a single daemon thread drains it
+ * to {@code System.out} ({@code DEBUG}/{@code INFO}) or {@code System.err}
+ * ({@code WARN}/{@code ERROR}). When the buffer is full the line is dropped and counted rather
+ * than blocking the publisher, and the writer reports how many lines were lost.
+ * <p>
+ * The level is fixed at startup from the {@code project_biu.log.level} system property
+ * ({@code debug}, {@code info}, {@code warn}, {@code error} or {@code off}; default {@code info}).
+ * Because {@link #DEBUG} and friends are {@code static final}, the JIT folds a guard like
+ * <pre>
+ * if (Log.DEBUG) Log.debug("value = " + v);
+ * </pre>
+ * to nothing when the level is disabled, so hot paths never build the message string.
+ */
+public final class Log {
+
+    /**
+     * Log levels, from most to least verbose.
+     */
+    public enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+    /** The active level. */
+    public static final Level LEVEL = parseLevel(System.getProperty("project_biu.log.level"));
+
+    /** Whether {@link Level#DEBUG} lines are written. */
+    public static final boolean DEBUG = LEVEL.compareTo(Level.DEBUG) <= 0;
+    /** Whether {@link Level#INFO} lines are written. */
+    public static final boolean INFO = LEVEL.compareTo(Level.INFO) <= 0;
+    /** Whether {@link Level#WARN} lines are written. */
+    public static final boolean WARN = LEVEL.compareTo(Level.WARN) <= 0;
+    /** Whether {@link Level#ERROR} lines are written. */
+    public static final boolean ERROR = LEVEL.compareTo(Level.ERROR) <= 0;
+
+    private static final int CAPACITY = Integer.getInteger("project_biu.log.capacity", 8192);
+    private static final int MAX_BATCH = 256;
+    private static final long FLUSH_TIMEOUT_MILLIS = 5000;
+
+    private static final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(CAPACITY);
+    private static final LongAdder dropped = new LongAdder();
+    private static final Object writeLock = new Object();
+
+    static {
+        if (LEVEL != Level.OFF) {
+            Thread writer = new Thread(Log::writeLoop, "log-writer");
+            writer.setDaemon(true);
+            writer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-flush"));
+        }
+    }
+
+    private Log() {}
+
+    /**
+     * Logs a debug line. Callers on hot paths should guard with {@link #DEBUG}.
+     *
+     * @param msg the line to log
+     */
+    public static void debug(String msg) {
+        if (DEBUG) enqueue(Level.DEBUG, msg, null);
+    }
+
+    /**
+     * Logs an informational line.
+     *
+     * @param msg the line to log
+     */
+    public static void info(String msg) {
+        if (INFO) enqueue(Level.INFO, msg, null);
+    }
+
+    /**
+     * Logs a warning line.
+     *
+     * @param msg the line to log
+     */
+    public static void warn(String msg) {
+        if (WARN) enqueue(Level.WARN, msg, null);
+    }
+
+    /**
+     * Logs an error line.
+     *
+     * @param msg the line to log
+     */
+    public static void error(String msg) {
+        if (ERROR) enqueue(Level.ERROR, msg, null);
+    }
+
+    /**
+     * Logs an error line followed by the stack trace of {@code t}.
+     *
+     * @param msg the line to log
+     * @param t   the cause, or {@code null}
+     */
+    public static void error(String msg, Throwable t) {
+        if (ERROR) enqueue(Level.ERROR, msg, t);
+    }
+
+    /**
+     * Returns the number of lines discarded because the buffer was full.
+     *
+     * @return the dropped-line count
+     */
+    public static long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Waits until every line logged before this call has been written, in order, by the writer
+     * thread (at most {@value #FLUSH_TIMEOUT_MILLIS} ms). Called automatically at JVM shutdown.
+     */
+    public static void flush() {
+        if (LEVEL == Level.OFF) return;
+        Entry marker = new Entry(null, null, null);
+        try {
+            // Lines queued before the marker are written before the writer reaches it
+            if (queue.offer(marker, FLUSH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                marker.flushed.await(FLUSH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void enqueue(Level level, String msg, Throwable t) {
+        if (!queue.offer(new Entry(level, msg, t))) {
+            dropped.increment();
+        }
+    }
+
+    private static void writeLoop() {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH);
+        long reported = 0;
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            write(batch);
+            batch.clear();
+
+            long lost = dropped.sum();
+            if (lost != reported) {
+                System.err.println("❗ Log buffer full: " + (lost - reported) + " lines dropped");
+                reported = lost;
+            }
+        }
+    }
+
+    private static void write(List<Entry> batch) {
+        synchronized (writeLock) {
+            boolean out = false, err = false;
+            for (Entry e : batch) {
+                if (e.flushed != null) continue;
+                PrintStream ps = e.level.compareTo(Level.WARN) >= 0 ? System.err : System.out;
+                ps.println(e.msg);
+                if (e.cause != null) {
+                    StringWriter sw = new StringWriter();
+                    e.cause.printStackTrace(new PrintWriter(sw));
+                    ps.print(sw);
+                }
+                if (ps == System.err) err = true; else out = true;
+            }
+            if (out) System.out.flush();
+            if (err) System.err.flush();
+        }
+        for (Entry e : batch) {
+            if (e.flushed != null) e.flushed.countDown();
+        }
+    }
+
+    private static Level parseLevel(String s) {
+        if (s == null || s.isBlank()) return Level.INFO;
+        try {
+            return Level.valueOf(s.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("❗ Unknown log level: " + s + ", using INFO");
+            return Level.INFO;
+        }
+    }
+
+    /**
+     * A buffered log line, or a {@link #flush()} marker when {@code level} is null.
+     */
+    private static final class Entry {
+        final Level level;
+        final String msg;
+        final Throwable cause;
+        /** Released once the marker and every line before it are written; null for log lines. */
+        final CountDownLatch flushed;
+
+        Entry(Level level, String msg, Throwable cause) {
+            this.level = level;
+            this.msg = msg;
+            this.cause = cause;
+            this.flushed = level == null ? new CountDownLatch(1) : null;
+        }
+    }
+}
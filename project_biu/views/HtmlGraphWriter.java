@@ -5,57 +5,248 @@ import project_biu.graph.Node;
 import project_biu.graph.Message;
 import project_biu.graph.Topic;
 import project_biu.graph.TopicManagerSingleton;
+import project_biu.util.Log;
 
-import java.io.FileWriter;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Utility class that generates an HTML visualization of the current graph.
  * <p>
- * The output HTML is saved to the file: {@code src/html_files/graph.html}.
- * It uses a template HTML file (with placeholders for nodes and edges) and
- * dynamically injects topic and agent nodes along with SVG lines representing edges.
+ * Pages are kept in memory, under the name {@code graph.html}, or {@code graph_<id>.html} for
+ * graphs other than the default one, and served from there by
+ * {@link project_biu.servlets.HtmlLoader}. They are built from a template HTML file (with
+ * placeholders for nodes and edges) into which topic and agent nodes are injected along with SVG
+ * lines representing edges.
+ * <p>
+ * Rendering is incremental: the template is read once, and the node layout and edges are computed
+ * only when the graph's {@link Graph#getTopologyVersion() topology} changes. Otherwise a render
+ * just fills the current topic values into the cached layout, and is skipped entirely when no
+ * value changed. {@link #requestRender(String)} coalesces bursts of publishes into at most one
+ * background render per {@value #DEFAULT_INTERVAL_MILLIS} ms (system property
+ * {@code project_biu.render.interval}) per graph. The page of a graph that has been
+ * {@linkplain TopicManagerSingleton#remove(String) removed} is dropped and no longer served.
+ * The template is read from {@value #TEMPLATE_PATH}, relative to the working directory, unless
+ * the {@code project_biu.render.template} system property names another file.
  * </p>
  */
 public class HtmlGraphWriter {
 
+    private static final String TEMPLATE_PATH = "src/html_files/graph_template.html";
+    private static final String NODES_PLACEHOLDER = "<!-- NODES_PLACEHOLDER -->";
+    private static final String EDGES_PLACEHOLDER = "<!-- EDGES_PLACEHOLDER -->";
+
+    private static final int DEFAULT_INTERVAL_MILLIS = 100;
+    private static final long INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(
+            Integer.getInteger("project_biu.render.interval", DEFAULT_INTERVAL_MILLIS));
+
+    /** The template text, read on first use. */
+    private static volatile String template;
+
+    /** Render state per page name. */
+    private static final Map<String, Page> pages = new ConcurrentHashMap<>();
+
+    private static final ScheduledExecutorService renderer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "graph-renderer");
+        t.setDaemon(true);
+        return t;
+    });
+
     /**
-     * Generates an HTML representation of the given graph and writes it to graph.html.
-     * <p>
-     * This method reads a predefined template, computes node positions in a circular layout,
-     * renders topic values, draws edges between nodes, and injects the results into the template.
-     * </p>
+     * Returns the name of the HTML page a graph is rendered to.
+     *
+     * @param graphId the graph id
+     * @return the page name under {@code /app/}
+     */
+    public static String pageName(String graphId) {
+        return TopicManagerSingleton.DEFAULT_GRAPH.equals(graphId) ? "graph.html" : "graph_" + graphId + ".html";
+    }
+
+    /**
+     * Returns the last rendered content of a graph page.
+     *
+     * @param pageName the page name (see {@link #pageName(String)})
+     * @return the UTF-8 encoded page, or null if no such page has been rendered
+     */
+    public static byte[] getPage(String pageName) {
+        Page p = pages.get(pageName);
+        if (p == null) return null;
+        if (p.isRemoved()) {
+            pages.remove(pageName, p);
+            return null;
+        }
+        return p.html;
+    }
+
+    /**
+     * Renders a graph of the default topic manager to graph.html.
      *
      * @param g the {@link Graph} object to render as HTML
      */
     public static void writeGraphHtml(Graph g) {
-        try {
-            List<String> templateLines = Files.readAllLines(
-                    Paths.get("src/html_files/graph_template.html"), StandardCharsets.UTF_8);
+        writeGraphHtml(g, TopicManagerSingleton.DEFAULT_GRAPH);
+    }
+
+    /**
+     * Renders the given graph to the graph's page right away.
+     * <p>
+     * Computes node positions in a circular layout and draws the edges if the graph's topology
+     * changed since the page was last rendered, then fills in the topic values. Callers rendering
+     * a graph maintained by a {@link TopicManagerSingleton.TopicManager} hold the graph's monitor.
+     * </p>
+     *
+     * @param g       the {@link Graph} object to render as HTML
+     * @param graphId the id of the graph's topic manager (see {@link #pageName(String)})
+     */
+    public static void writeGraphHtml(Graph g, String graphId) {
+        evictRemoved();
+        Page p = page(graphId);
+        synchronized (p) {
+            try {
+                render(g, graphId, p);
+            } catch (Exception e) {
+                Log.error("❗ Failed to render " + pageName(graphId) + ": " + e.getMessage(), e);
+            }
+        }
+    }
 
+    /**
+     * Renders the maintained graph of a topic manager right away and returns the page.
+     *
+     * @param graphId the graph id
+     * @return the UTF-8 encoded page, or null if the graph does not exist or rendering failed
+     */
+    public static byte[] render(String graphId) {
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.find(graphId);
+        if (tm == null) return null;
+        Graph g = tm.getGraph();
+        synchronized (g) {
+            writeGraphHtml(g, graphId);
+        }
+        return getPage(pageName(graphId));
+    }
+
+    /**
+     * Schedules a background render of a topic manager's graph. Requests made while one is
+     * pending are merged into it, and renders of the same page are at least
+     * {@code project_biu.render.interval} ms apart.
+     *
+     * @param graphId the graph id
+     */
+    public static void requestRender(String graphId) {
+        if (TopicManagerSingleton.find(graphId) == null) return;
+        Page p = page(graphId);
+        if (!p.scheduled.compareAndSet(false, true)) return;
+        long wait = p.lastRender + INTERVAL_NANOS - System.nanoTime();
+        renderer.schedule(() -> {
+            p.scheduled.set(false); // later requests schedule the next render
+            evictRemoved(); // a graph removed meanwhile is not rendered back
+            render(graphId);
+        }, Math.max(0, wait), TimeUnit.NANOSECONDS);
+    }
+
+    private static Page page(String graphId) {
+        return pages.computeIfAbsent(pageName(graphId), k -> new Page(graphId));
+    }
+
+    // Drops the pages of graphs that have been removed since they were rendered
+    private static void evictRemoved() {
+        pages.values().removeIf(Page::isRemoved);
+    }
+
+    // Must be called while holding the page's monitor
+    private static void render(Graph g, String graphId, Page p) throws IOException {
+        Layout layout = p.layout;
+        if (layout == null || p.graph != g || p.topologyVersion != g.getTopologyVersion()) {
+            layout = new Layout(g, TopicManagerSingleton.find(graphId), loadTemplate());
+            p.layout = layout;
+            p.graph = g;
+            p.manager = TopicManagerSingleton.find(graphId);
+            p.topologyVersion = g.getTopologyVersion();
+            p.valueVersion = -1;
+        }
+
+        long version = layout.valueVersion();
+        if (version == p.valueVersion && p.html != null) return;
+
+        p.html = layout.render().getBytes(StandardCharsets.UTF_8);
+        p.valueVersion = version;
+        p.lastRender = System.nanoTime();
+    }
+
+    private static String loadTemplate() throws IOException {
+        String t = template;
+        if (t == null) {
             StringBuilder htmlBuilder = new StringBuilder();
-            for (String line : templateLines) {
+            String path = System.getProperty("project_biu.render.template", TEMPLATE_PATH);
+            for (String line : Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8)) {
                 htmlBuilder.append(line).append("\n");
             }
+            t = htmlBuilder.toString();
+            template = t;
+        }
+        return t;
+    }
+
+    /**
+     * Render state of one page.
+     */
+    private static final class Page {
+        private final String graphId;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile byte[] html;
+        private Graph graph;
+        private long topologyVersion;
+        private Layout layout;
+        private long valueVersion = -1;
+        private volatile long lastRender = System.nanoTime() - INTERVAL_NANOS;
+        /** The topic manager the page was rendered for; null if it had none. */
+        private volatile TopicManagerSingleton.TopicManager manager;
 
-            String html = htmlBuilder.toString();
+        Page(String graphId) {
+            this.graphId = graphId;
+        }
+
+        /** Whether the page's graph was removed (or replaced by a new graph of the same id). */
+        boolean isRemoved() {
+            return manager != null && TopicManagerSingleton.find(graphId) != manager;
+        }
+    }
+
+    /**
+     * The static part of a page: every fragment around the topic value labels, with the edges and
+     * template already filled in.
+     */
+    private static final class Layout {
+        /** {@code fragments[i]} precedes the value of {@code labels[i]}; the last one ends the page. */
+        private final String[] fragments;
+        private final Topic[] labels;
+        private final int length;
+
+        Layout(Graph g, TopicManagerSingleton.TopicManager tm, String template) {
+            List<String> fragments = new ArrayList<>();
+            List<Topic> labels = new ArrayList<>();
             StringBuilder nodesBuilder = new StringBuilder();
             StringBuilder edgesBuilder = new StringBuilder();
 
-            Map<String, int[]> nodePositions = new HashMap<>();
-            List<Node> nodes = new ArrayList<>(g);
+            Map<Node, int[]> nodePositions = new IdentityHashMap<>();
 
             int radius = 300;
             int centerX = 500;
             int centerY = 400;
-            int total = nodes.size();
+            int total = g.size();
             int index = 0;
 
-            // Position and draw nodes
-            for (Node node : nodes) {
+            // Position and draw nodes; topic labels are left open for the values
+            for (Node node : g) {
                 double angle = 2 * Math.PI * index / total;
                 int x = (int) (centerX + radius * Math.cos(angle));
                 int y = (int) (centerY + radius * Math.sin(angle));
@@ -63,21 +254,6 @@ public class HtmlGraphWriter {
                 String name = node.getName();
                 boolean isTopic = name.startsWith("T");
                 String displayName = isTopic ? name.substring(1) : name;
-                String label = "0";
-
-                if (isTopic) {
-                    try {
-                        Topic t = TopicManagerSingleton.get().getTopic(displayName);
-                        java.lang.reflect.Field f = t.getClass().getDeclaredField("lastMessage");
-                        f.setAccessible(true);
-                        Message msg = (Message) f.get(t);
-                        if (msg != null && msg.data != null) {
-                            label = new String(msg.data);
-                        }
-                    } catch (Exception e) {
-                        label = "0";
-                    }
-                }
 
                 String nodeHtml = String.format(
                         "<div class='node %s' style='left:%dpx; top:%dpx;'>%s</div>",
@@ -85,20 +261,24 @@ public class HtmlGraphWriter {
                 nodesBuilder.append(nodeHtml).append("\n");
 
                 if (isTopic) {
+                    Topic t = node.getTopic() != null ? node.getTopic() : (tm != null ? tm.getTopic(displayName) : null);
                     nodesBuilder.append(String.format(
-                            "<div class='label' style='left:%dpx; top:%dpx;'>%s</div>",
-                            x, y + 35, label)).append("\n");
+                            "<div class='label' style='left:%dpx; top:%dpx;'>", x, y + 35));
+                    fragments.add(nodesBuilder.toString());
+                    labels.add(t);
+                    nodesBuilder.setLength(0);
+                    nodesBuilder.append("</div>\n");
                 }
 
-                nodePositions.put(name, new int[]{x + 50, y + 20});
+                nodePositions.put(node, new int[]{x + 50, y + 20});
                 index++;
             }
 
             // Draw edges between nodes
             for (Node from : g) {
                 for (Node to : from.getEdges()) {
-                    int[] src = nodePositions.get(from.getName());
-                    int[] tgt = nodePositions.get(to.getName());
+                    int[] src = nodePositions.get(from);
+                    int[] tgt = nodePositions.get(to);
                     if (src != null && tgt != null) {
                         double dx = tgt[0] - src[0], dy = tgt[1] - src[1];
                         double dist = Math.sqrt(dx * dx + dy * dy);
@@ -116,15 +296,43 @@ public class HtmlGraphWriter {
                 }
             }
 
-            html = html.replace("<!-- NODES_PLACEHOLDER -->", nodesBuilder.toString());
-            html = html.replace("<!-- EDGES_PLACEHOLDER -->", edgesBuilder.toString());
+            // Split the template around the nodes, with the edges already in place
+            String html = template.replace(EDGES_PLACEHOLDER, edgesBuilder.toString());
+            int at = html.indexOf(NODES_PLACEHOLDER);
+            if (at < 0) {
+                fragments.clear();
+                labels.clear();
+                fragments.add(html);
+            } else {
+                fragments.add(nodesBuilder + html.substring(at + NODES_PLACEHOLDER.length()));
+                fragments.set(0, html.substring(0, at) + fragments.get(0));
+            }
+
+            this.fragments = fragments.toArray(new String[0]);
+            this.labels = labels.toArray(new Topic[0]);
+            int length = 0;
+            for (String f : this.fragments) length += f.length();
+            this.length = length + 8 * this.labels.length;
+        }
 
-            try (FileWriter fw = new FileWriter("src/html_files/graph.html")) {
-                fw.write(html);
+        /** Sum of the label topics' versions; unchanged means no label changed. */
+        long valueVersion() {
+            long v = 0;
+            for (Topic t : labels) {
+                if (t != null) v += t.getVersion();
             }
+            return v;
+        }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+        String render() {
+            StringBuilder sb = new StringBuilder(length);
+            for (int i = 0; i < labels.length; i++) {
+                sb.append(fragments[i]);
+                Message msg = labels[i] != null ? labels[i].getLastMessage() : null;
+                sb.append(msg != null ? msg.asText() : "0");
+            }
+            sb.append(fragments[labels.length]);
+            return sb.toString();
         }
     }
 }